@@ -2,6 +2,7 @@ plugins {
     java
     `java-library`
     `maven-publish`
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "io.github.prcraftmc"
@@ -13,6 +14,7 @@ repositories {
 
 dependencies {
     api("org.ow2.asm:asm:9.5")
+    implementation("org.ow2.asm:asm-tree:9.5")
 
     compileOnly("org.jetbrains:annotations:24.0.1")
 
@@ -26,6 +28,21 @@ tasks.test {
     useJUnitPlatform()
 }
 
+jmh {
+    // Allocation rate matters as much as throughput here
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
+
+tasks.jar {
+    manifest {
+        attributes(
+            "Premain-Class" to "io.github.prcraftmc.striplib.StripAgent",
+            "Agent-Class" to "io.github.prcraftmc.striplib.StripAgent"
+        )
+    }
+}
+
 java {
     withSourcesJar()
     withJavadocJar()
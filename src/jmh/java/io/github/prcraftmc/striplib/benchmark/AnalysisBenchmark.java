@@ -0,0 +1,46 @@
+package io.github.prcraftmc.striplib.benchmark;
+
+import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.CompiledStripConfig;
+import io.github.prcraftmc.striplib.StripData;
+import org.openjdk.jmh.annotations.*;
+import org.objectweb.asm.ClassReader;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AnalysisBenchmark {
+    @Param({"plain", "lambda", "fieldInit"})
+    public String kind;
+
+    @Param({"4", "32"})
+    public int size;
+
+    private ClassStripper.Builder builder;
+    private CompiledStripConfig config;
+    private byte[] classFile;
+
+    @Setup
+    public void setup() {
+        builder = ClassStripper.builder()
+            .annotation("client", ClassCorpus.CLIENT)
+            .annotation("server", ClassCorpus.SERVER);
+        config = builder.compile("server");
+        classFile = ClassCorpus.generate(kind, "io/github/prcraftmc/striplib/benchmark/generated/Subject", size);
+    }
+
+    @Benchmark
+    public StripData calcStripData() {
+        return builder.build("server").calcStripData(new ClassReader(classFile), 0);
+    }
+
+    @Benchmark
+    public StripData calcStripDataCompiled() {
+        return config.calcStripData(new ClassReader(classFile), 0);
+    }
+}
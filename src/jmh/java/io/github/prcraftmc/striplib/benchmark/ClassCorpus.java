@@ -0,0 +1,139 @@
+package io.github.prcraftmc.striplib.benchmark;
+
+import org.objectweb.asm.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class ClassCorpus {
+    static final Type CLIENT = Type.getObjectType("io/github/prcraftmc/striplib/benchmark/Client");
+    static final Type SERVER = Type.getObjectType("io/github/prcraftmc/striplib/benchmark/Server");
+
+    private static final Handle METAFACTORY = new Handle(
+        Opcodes.H_INVOKESTATIC,
+        "java/lang/invoke/LambdaMetafactory",
+        "metafactory",
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+        false
+    );
+
+    private ClassCorpus() {
+    }
+
+    static byte[] generate(String kind, String name, int size) {
+        switch (kind) {
+            case "plain":
+                return plain(name, size);
+            case "lambda":
+                return lambda(name, size);
+            case "fieldInit":
+                return fieldInit(name, size);
+            default:
+                throw new IllegalArgumentException("Unknown class kind " + kind);
+        }
+    }
+
+    static List<byte[]> mixed(int classes) {
+        // Roughly the shape of a mod jar: most classes don't mention the annotations at all
+        final List<byte[]> result = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            final String name = "io/github/prcraftmc/striplib/benchmark/generated/Class" + i;
+            if (i % 20 == 0) {
+                result.add(lambda(name, 4));
+            } else if (i % 20 == 1) {
+                result.add(fieldInit(name, 16));
+            } else {
+                result.add(plain(name, 8));
+            }
+        }
+        return result;
+    }
+
+    static byte[] plain(String name, int members) {
+        final ClassWriter writer = start(name);
+        for (int i = 0; i < members; i++) {
+            writer.visitField(Opcodes.ACC_PUBLIC, "field" + i, "I", null, null).visitEnd();
+            final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "()I", null, null);
+            method.visitCode();
+            method.visitVarInsn(Opcodes.ALOAD, 0);
+            method.visitFieldInsn(Opcodes.GETFIELD, name, "field" + i, "I");
+            method.visitInsn(Opcodes.ICONST_1);
+            method.visitInsn(Opcodes.IADD);
+            method.visitInsn(Opcodes.IRETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        constructor(writer, name, null, 0);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    static byte[] lambda(String name, int depth) {
+        // A stripped method containing a lambda, containing a lambda, and so on, plus an equally deep kept chain
+        final ClassWriter writer = start(name);
+        for (final String side : new String[] {"client", "server"}) {
+            final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, side, "()V", null, null);
+            method.visitAnnotation((side.equals("client") ? CLIENT : SERVER).getDescriptor(), false).visitEnd();
+            emitLambdaBody(method, name, "lambda$" + side + "$0");
+            for (int i = 0; i < depth; i++) {
+                final MethodVisitor lambda = writer.visitMethod(
+                    Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, "lambda$" + side + '$' + i, "()V", null, null
+                );
+                emitLambdaBody(lambda, name, i + 1 < depth ? "lambda$" + side + '$' + (i + 1) : null);
+            }
+        }
+        constructor(writer, name, null, 0);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    static byte[] fieldInit(String name, int fields) {
+        final ClassWriter writer = start(name);
+        for (int i = 0; i < fields; i++) {
+            final FieldVisitor field = writer.visitField(Opcodes.ACC_PUBLIC, "field" + i, "Ljava/lang/Object;", null, null);
+            field.visitAnnotation((i % 2 == 0 ? CLIENT : SERVER).getDescriptor(), false).visitEnd();
+            field.visitEnd();
+        }
+        constructor(writer, name, "field", fields);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static ClassWriter start(String name) {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        writer.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+        return writer;
+    }
+
+    private static void constructor(ClassWriter writer, String name, String fieldPrefix, int fields) {
+        final MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        for (int i = 0; i < fields; i++) {
+            init.visitVarInsn(Opcodes.ALOAD, 0);
+            init.visitTypeInsn(Opcodes.NEW, "java/lang/Object");
+            init.visitInsn(Opcodes.DUP);
+            init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            init.visitFieldInsn(Opcodes.PUTFIELD, name, fieldPrefix + i, "Ljava/lang/Object;");
+        }
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+    }
+
+    private static void emitLambdaBody(MethodVisitor method, String owner, String target) {
+        method.visitCode();
+        if (target != null) {
+            method.visitInvokeDynamicInsn(
+                "run", "()Ljava/lang/Runnable;", METAFACTORY,
+                Type.getMethodType("()V"), new Handle(Opcodes.H_INVOKESTATIC, owner, target, "()V", false), Type.getMethodType("()V")
+            );
+            method.visitInsn(Opcodes.POP);
+        }
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.prcraftmc.striplib.benchmark;
+
+import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.CompiledStripConfig;
+import io.github.prcraftmc.striplib.MultiEnvironmentConfig;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StripBenchmark {
+    @Param({"5000"})
+    public int classes;
+
+    // Compiled once up front, so that only the stripping itself is measured
+    private CompiledStripConfig config;
+    private MultiEnvironmentConfig allConfigs;
+    private List<byte[]> corpus;
+
+    @Setup
+    public void setup() {
+        final ClassStripper.Builder builder = ClassStripper.builder()
+            .annotation("client", ClassCorpus.CLIENT)
+            .annotation("server", ClassCorpus.SERVER);
+        config = builder.compile("server");
+        allConfigs = builder.compileAll();
+        corpus = ClassCorpus.mixed(classes);
+    }
+
+    @Benchmark
+    public void stripToClassWriter(Blackhole blackhole) {
+        for (final byte[] classFile : corpus) {
+            final ClassWriter writer = new ClassWriter(0);
+            config.newStripper().strip(new ClassReader(classFile), 0, writer);
+            blackhole.consume(writer.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public void stripToBytes(Blackhole blackhole) {
+        for (final byte[] classFile : corpus) {
+            blackhole.consume(config.strip(classFile, 0));
+        }
+    }
+
+    @Benchmark
+    public void stripAllEnvironments(Blackhole blackhole) {
+        for (final byte[] classFile : corpus) {
+            blackhole.consume(allConfigs.strip(classFile, 0));
+        }
+    }
+}
@@ -7,17 +7,42 @@ import java.util.Objects;
 class AnnotationData {
     final String environment;
     final Type annotation;
+    final String descriptor;
     final String stripLambdasKey;
     final boolean defaultStripLambdas;
+    // null if the annotation matches whatever its element values
+    final String element;
+    // An enum value is a String[] {descriptor, name}, like ASM reports it
+    final Object value;
+    final String valueKey;
 
     AnnotationData(String environment, Type annotation, String stripLambdasKey, boolean defaultStripLambdas) {
+        this(environment, annotation, null, null, stripLambdasKey, defaultStripLambdas);
+    }
+
+    AnnotationData(
+        String environment,
+        Type annotation,
+        String element,
+        Object value,
+        String stripLambdasKey,
+        boolean defaultStripLambdas
+    ) {
         this.environment = Objects.requireNonNull(environment, "environment");
         this.annotation = Objects.requireNonNull(annotation, "annotation");
+        this.descriptor = annotation.getDescriptor();
         this.stripLambdasKey = stripLambdasKey;
         this.defaultStripLambdas = defaultStripLambdas;
+        this.element = element;
+        this.value = element != null ? AnnotationMatcher.normalizeValue(Objects.requireNonNull(value, "value")) : null;
+        this.valueKey = element != null ? AnnotationMatcher.valueKey(element, this.value) : null;
     }
 
     Type getAnnotation() {
         return annotation;
     }
+
+    String getDescriptor() {
+        return descriptor;
+    }
 }
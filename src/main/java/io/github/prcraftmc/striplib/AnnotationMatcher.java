@@ -0,0 +1,100 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+/**
+ * The {@link AnnotationData} registered for one annotation descriptor, indexed so that those matching on an element
+ * value are found with a single lookup per element visited.
+ */
+final class AnnotationMatcher {
+    final List<AnnotationData> always = new ArrayList<>(1);
+    // By element name, then value
+    private final Map<String, Map<Object, List<AnnotationData>>> byValue = new HashMap<>();
+    // By element name, then enum descriptor, then constant name
+    private final Map<String, Map<String, Map<String, List<AnnotationData>>>> byEnum = new HashMap<>();
+
+    static Map<String, AnnotationMatcher> compile(Collection<AnnotationData> annotations) {
+        final Map<String, AnnotationMatcher> result = new HashMap<>();
+        for (final AnnotationData annotation : annotations) {
+            final AnnotationMatcher matcher = result.computeIfAbsent(annotation.descriptor, k -> new AnnotationMatcher());
+            if (annotation.element == null) {
+                matcher.always.add(annotation);
+            } else if (annotation.value instanceof String[]) {
+                final String[] enumValue = (String[])annotation.value;
+                matcher.byEnum.computeIfAbsent(annotation.element, k -> new HashMap<>())
+                    .computeIfAbsent(enumValue[0], k -> new HashMap<>())
+                    .computeIfAbsent(enumValue[1], k -> new ArrayList<>(1))
+                    .add(annotation);
+            } else {
+                matcher.byValue.computeIfAbsent(annotation.element, k -> new HashMap<>())
+                    .computeIfAbsent(annotation.value, k -> new ArrayList<>(1))
+                    .add(annotation);
+            }
+        }
+        return result;
+    }
+
+    boolean matchesValues() {
+        return !byValue.isEmpty() || !byEnum.isEmpty();
+    }
+
+    /**
+     * Returns the annotations matching an element value as ASM reports it. Values that can't be configured, such as
+     * arrays, never match.
+     */
+    List<AnnotationData> match(String element, Object value) {
+        final Map<Object, List<AnnotationData>> values = byValue.get(element);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        return values.getOrDefault(value, Collections.emptyList());
+    }
+
+    List<AnnotationData> matchEnum(String element, String descriptor, String value) {
+        final Map<String, Map<String, List<AnnotationData>>> enums = byEnum.get(element);
+        if (enums == null) {
+            return Collections.emptyList();
+        }
+        final Map<String, List<AnnotationData>> values = enums.get(descriptor);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        return values.getOrDefault(value, Collections.emptyList());
+    }
+
+    /**
+     * Converts a configured element value to the form ASM reports it in. The value may be an {@link Enum}, an
+     * ASM-style {@code String[] {descriptor, name}} enum value, a {@link Type} for a class literal, a {@link String},
+     * or a boxed primitive. Enum values are returned as {@code String[] {descriptor, name}}.
+     *
+     * @throws IllegalArgumentException If the value is of any other type.
+     */
+    static Object normalizeValue(Object value) {
+        if (value instanceof Enum) {
+            final Enum<?> enumValue = (Enum<?>)value;
+            return new String[] {Type.getDescriptor(enumValue.getDeclaringClass()), enumValue.name()};
+        }
+        if (value instanceof String[] && ((String[])value).length == 2) {
+            return ((String[])value).clone();
+        }
+        if (
+            !(value instanceof String) && !(value instanceof Type) && !(value instanceof Boolean) &&
+                !(value instanceof Character) && !(value instanceof Number)
+        ) {
+            throw new IllegalArgumentException("Unsupported annotation element value " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns a string identifying a {@linkplain #normalizeValue normalized} element value, for fingerprints.
+     */
+    static String valueKey(String element, Object value) {
+        if (value instanceof String[]) {
+            return element + '=' + ((String[])value)[0] + '.' + ((String[])value)[1];
+        }
+        return element + '=' + value.getClass().getName() + ':' + value;
+    }
+}
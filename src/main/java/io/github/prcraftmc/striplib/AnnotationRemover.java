@@ -0,0 +1,79 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.*;
+
+import java.util.Set;
+
+/**
+ * Removes a set of annotations, by descriptor, from a class and its members. Members known not to carry any are passed
+ * straight to the delegate's own visitors, which lets a {@link ClassWriter} copy them without decoding them.
+ */
+final class AnnotationRemover extends ClassVisitor {
+    private final Set<String> descriptors;
+    private final MemberSet annotatedFields;
+    private final MemberSet annotatedMethods;
+
+    /**
+     * @param annotatedFields  The fields carrying any of the annotations, or {@code null} to check every field.
+     * @param annotatedMethods The methods carrying any of the annotations, or {@code null} to check every method.
+     */
+    AnnotationRemover(ClassVisitor delegate, Set<String> descriptors, MemberSet annotatedFields, MemberSet annotatedMethods) {
+        super(Opcodes.ASM9, delegate);
+        this.descriptors = descriptors;
+        this.annotatedFields = annotatedFields;
+        this.annotatedMethods = annotatedMethods;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return descriptors.contains(descriptor) ? null : super.visitAnnotation(descriptor, visible);
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return descriptors.contains(descriptor) ? null : super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        final FieldVisitor delegate = super.visitField(access, name, descriptor, signature, value);
+        if (delegate == null || (annotatedFields != null && !annotatedFields.contains(name, descriptor))) {
+            return delegate;
+        }
+        return new FieldVisitor(api, delegate) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return descriptors.contains(descriptor) ? null : super.visitAnnotation(descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return descriptors.contains(descriptor) ? null : super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+            }
+        };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        final MethodVisitor delegate = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (delegate == null || (annotatedMethods != null && !annotatedMethods.contains(name, descriptor))) {
+            return delegate;
+        }
+        return new MethodVisitor(api, delegate) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return descriptors.contains(descriptor) ? null : super.visitAnnotation(descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return descriptors.contains(descriptor) ? null : super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                return descriptors.contains(descriptor) ? null : super.visitParameterAnnotation(parameter, descriptor, visible);
+            }
+        };
+    }
+}
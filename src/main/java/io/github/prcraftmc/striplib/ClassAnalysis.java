@@ -0,0 +1,599 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Records where strip annotations appear in a class, independently of environment, so that {@link StripData} can be
+ * resolved for any number of environments from a single parse.
+ */
+final class ClassAnalysis extends ClassVisitor {
+    private static final String LAMBDA_CLASS_NAME = Type.getInternalName(LambdaMetafactory.class);
+    private static final String LAMBDA_METHOD_DESCRIPTOR =
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+
+    private final Map<String, AnnotationMatcher> annotations;
+    private final Set<String> configuredAnnotations;
+    private final boolean hierarchy;
+    private Set<String> constantKeys;
+
+    private String className, superName;
+    private String[] interfaces;
+
+    private final List<AnnotationData> classAnnotations = new ArrayList<>(0);
+    private final List<AnnotationData> superclassAnnotations = new ArrayList<>(0);
+    private final Map<String, List<AnnotationData>> interfaceAnnotations = new HashMap<>();
+    private final Map<StripData.Member, List<MemberAnnotation>> fieldAnnotations = new LinkedHashMap<>();
+    private final Map<StripData.Member, List<MemberAnnotation>> methodAnnotations = new LinkedHashMap<>();
+    private final Map<StripData.Member, List<StripData.Member>> lambdaTargets = new LinkedHashMap<>();
+    private final Map<StripData.Member, MethodNode> foldableMethods = new LinkedHashMap<>();
+    private final Set<StripData.Member> instanceMethods = new LinkedHashSet<>();
+    private final Map<StripData.Member, StripData.Member> bridgeTargets = new HashMap<>();
+    private final Set<StripData.Member> syntheticMethods = new HashSet<>();
+    private final Map<StripData.Member, Set<StripData.Member>> directCallers = new HashMap<>();
+    private final MemberSet annotatedFields = new MemberSet();
+    private final MemberSet annotatedMethods = new MemberSet();
+
+    ClassAnalysis(
+        ClassVisitor delegate,
+        Map<String, AnnotationMatcher> annotations,
+        Set<String> configuredAnnotations,
+        Set<String> constantKeys,
+        boolean hierarchy
+    ) {
+        super(Opcodes.ASM9, delegate);
+        this.annotations = annotations;
+        this.configuredAnnotations = configuredAnnotations;
+        this.hierarchy = hierarchy;
+        this.constantKeys = constantKeys;
+    }
+
+    /**
+     * Skips looking for environment constants, for classes known not to reference any.
+     */
+    void ignoreConstants() {
+        constantKeys = Collections.emptySet();
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.className = name;
+        this.superName = superName;
+        this.interfaces = interfaces != null ? Arrays.copyOf(interfaces, interfaces.length) : null;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return match(descriptor, super.visitAnnotation(descriptor, visible), false, (matches, values) ->
+            classAnnotations.addAll(matches)
+        );
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        final TypeReference ref = new TypeReference(typeRef);
+        final AnnotationVisitor delegate = super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+        if (ref.getSort() != TypeReference.CLASS_EXTENDS) {
+            return delegate;
+        }
+        return match(descriptor, delegate, false, (matches, values) -> {
+            if (ref.getSuperTypeIndex() == -1) {
+                superclassAnnotations.addAll(matches);
+            } else {
+                interfaceAnnotations.computeIfAbsent(interfaces[ref.getSuperTypeIndex()], k -> new ArrayList<>(1))
+                    .addAll(matches);
+            }
+        });
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String fieldDescriptor, String signature, Object value) {
+        return new FieldVisitor(api, super.visitField(access, name, fieldDescriptor, signature, value)) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                if (configuredAnnotations.contains(descriptor)) {
+                    annotatedFields.add(name, fieldDescriptor);
+                }
+                return match(descriptor, super.visitAnnotation(descriptor, visible), true, (matches, values) ->
+                    addMemberAnnotations(
+                        fieldAnnotations.computeIfAbsent(new StripData.Member(name, fieldDescriptor), k -> new ArrayList<>(1)),
+                        matches,
+                        values
+                    )
+                );
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                if (configuredAnnotations.contains(descriptor)) {
+                    annotatedFields.add(name, fieldDescriptor);
+                }
+                return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+            }
+        };
+    }
+
+    private AnnotationVisitor match(
+        String descriptor,
+        AnnotationVisitor delegate,
+        boolean collectValues,
+        BiConsumer<List<AnnotationData>, Map<String, Object>> onMatch
+    ) {
+        final AnnotationMatcher matcher = annotations.get(descriptor);
+        if (matcher == null) {
+            return delegate;
+        }
+        if (!collectValues && !matcher.matchesValues()) {
+            if (!matcher.always.isEmpty()) {
+                onMatch.accept(matcher.always, null);
+            }
+            return delegate;
+        }
+        return new AnnotationVisitor(api, delegate) {
+            List<AnnotationData> matches = matcher.always;
+            Map<String, Object> values;
+
+            @Override
+            public void visit(String name, Object value) {
+                if (collectValues) {
+                    if (values == null) {
+                        values = new HashMap<>();
+                    }
+                    values.put(name, value);
+                }
+                if (matcher.matchesValues()) {
+                    addMatches(matcher.match(name, value));
+                }
+                super.visit(name, value);
+            }
+
+            @Override
+            public void visitEnum(String name, String descriptor, String value) {
+                if (matcher.matchesValues()) {
+                    addMatches(matcher.matchEnum(name, descriptor, value));
+                }
+                super.visitEnum(name, descriptor, value);
+            }
+
+            private void addMatches(List<AnnotationData> found) {
+                if (found.isEmpty()) return;
+                if (matches == matcher.always) {
+                    matches = new ArrayList<>(matcher.always);
+                }
+                matches.addAll(found);
+            }
+
+            @Override
+            public void visitEnd() {
+                if (!matches.isEmpty()) {
+                    onMatch.accept(matches, values);
+                }
+                super.visitEnd();
+            }
+        };
+    }
+
+    private static void addMemberAnnotations(
+        List<MemberAnnotation> addTo,
+        List<AnnotationData> matches,
+        Map<String, Object> values
+    ) {
+        for (final AnnotationData annotation : matches) {
+            final Object stripLambdas = annotation.stripLambdasKey != null && values != null
+                ? values.get(annotation.stripLambdasKey) : null;
+            addTo.add(new MemberAnnotation(
+                annotation,
+                stripLambdas != null ? (boolean)stripLambdas : annotation.defaultStripLambdas
+            ));
+        }
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String methodDescriptor, String signature, String[] exceptions) {
+        // Fields are visited before methods, so it's already known whether any initializer can store to a stripped one
+        final boolean initializer = !fieldAnnotations.isEmpty() && (name.equals("<init>") || name.equals("<clinit>"));
+        // Likewise, type annotations come first, so it's known whether the class has interfaces that may be stripped
+        final boolean bridge = !interfaceAnnotations.isEmpty() && (access & Opcodes.ACC_BRIDGE) != 0;
+        if (!interfaceAnnotations.isEmpty() && ClassHierarchy.isOverridable(access, name)) {
+            instanceMethods.add(new StripData.Member(name, methodDescriptor));
+        }
+        if (!constantKeys.isEmpty() && (access & Opcodes.ACC_SYNTHETIC) != 0) {
+            syntheticMethods.add(new StripData.Member(name, methodDescriptor));
+        }
+        // Calls within the class keep methods that would otherwise go with folded code or a stripped interface
+        final boolean recordCalls = !constantKeys.isEmpty() || (hierarchy && !interfaceAnnotations.isEmpty());
+        final MethodVisitor analyzer = newMethodAnalyzer(
+            name,
+            methodDescriptor,
+            !initializer,
+            bridge,
+            recordCalls,
+            super.visitMethod(access, name, methodDescriptor, signature, exceptions)
+        );
+        if (constantKeys.isEmpty() && !initializer) {
+            return analyzer;
+        }
+        // Methods using environment constants are kept, so that they can be folded for each environment on resolve
+        return new MethodNode(api, access, name, methodDescriptor, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                accept(analyzer);
+                if (initializer) {
+                    addInitializerLambdas(this);
+                }
+                if (!constantKeys.isEmpty() && ConstantFolder.referencesAny(this, constantKeys)) {
+                    foldableMethods.put(new StripData.Member(name, methodDescriptor), this);
+                }
+            }
+        };
+    }
+
+    private void addInitializerLambdas(MethodNode method) {
+        // Lambdas stored straight into an annotated field are attributed to the field rather than the initializer, so
+        // that they go along with it
+        final StripData.Member member = new StripData.Member(method.name, method.desc);
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (!(insn instanceof InvokeDynamicInsnNode)) continue;
+            final InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode)insn;
+            final StripData.Member lambdaTarget = getLambdaTarget(className, indy.bsm, indy.bsmArgs);
+            if (lambdaTarget == null) continue;
+            final StripData.Member field = getStoredField(className, method, indy, fieldAnnotations.keySet());
+            lambdaTargets.computeIfAbsent(field != null ? field : member, k -> new ArrayList<>()).add(lambdaTarget);
+        }
+    }
+
+    private MethodVisitor newMethodAnalyzer(
+        String name,
+        String methodDescriptor,
+        boolean recordLambdas,
+        boolean bridge,
+        boolean recordCalls,
+        MethodVisitor delegate
+    ) {
+        return new MethodVisitor(api, delegate) {
+            StripData.Member member;
+            List<StripData.Member> targets;
+
+            StripData.Member getMember() {
+                if (member == null) {
+                    member = new StripData.Member(name, methodDescriptor);
+                }
+                return member;
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String indyName, String indyDescriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                final StripData.Member lambdaTarget = recordLambdas
+                    ? getLambdaTarget(className, bootstrapMethodHandle, bootstrapMethodArguments) : null;
+                if (lambdaTarget != null) {
+                    if (targets == null) {
+                        targets = lambdaTargets.computeIfAbsent(getMember(), k -> new ArrayList<>());
+                    }
+                    targets.add(lambdaTarget);
+                }
+                super.visitInvokeDynamicInsn(indyName, indyDescriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String callName, String callDescriptor, boolean isInterface) {
+                if (bridge && opcode != Opcodes.INVOKESTATIC && owner.equals(className) && callName.equals(name)) {
+                    bridgeTargets.put(getMember(), new StripData.Member(callName, callDescriptor));
+                }
+                if (recordCalls && owner.equals(className)) {
+                    addDirectCall(callName, callDescriptor);
+                }
+                super.visitMethodInsn(opcode, owner, callName, callDescriptor, isInterface);
+            }
+
+            @Override
+            public void visitLdcInsn(Object value) {
+                if (recordCalls && value instanceof Handle && ((Handle)value).getOwner().equals(className)) {
+                    addDirectCall(((Handle)value).getName(), ((Handle)value).getDesc());
+                }
+                super.visitLdcInsn(value);
+            }
+
+            private void addDirectCall(String callName, String callDescriptor) {
+                directCallers.computeIfAbsent(new StripData.Member(callName, callDescriptor), k -> new HashSet<>(2))
+                    .add(getMember());
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                recordAnnotated(descriptor);
+                return match(descriptor, super.visitAnnotation(descriptor, visible), true, (matches, values) ->
+                    addMemberAnnotations(
+                        methodAnnotations.computeIfAbsent(getMember(), k -> new ArrayList<>(1)),
+                        matches,
+                        values
+                    )
+                );
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                recordAnnotated(descriptor);
+                return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                recordAnnotated(descriptor);
+                return super.visitParameterAnnotation(parameter, descriptor, visible);
+            }
+
+            private void recordAnnotated(String descriptor) {
+                if (configuredAnnotations.contains(descriptor)) {
+                    annotatedMethods.add(name, methodDescriptor);
+                }
+            }
+        };
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    StripData resolve(
+        Predicate<AnnotationData> strips,
+        Set<String> annotationDescriptors,
+        Set<String> configuredAnnotations,
+        Map<String, Object> constants,
+        ClassHierarchy hierarchy
+    ) {
+        if (anyMatch(superclassAnnotations, strips)) {
+            throw new IllegalArgumentException("Cannot strip superclass " + superName + " from class " + className);
+        }
+
+        final Set<String> stripInterfaces = new HashSet<>();
+        for (final Map.Entry<String, List<AnnotationData>> entry : interfaceAnnotations.entrySet()) {
+            if (anyMatch(entry.getValue(), strips)) {
+                stripInterfaces.add(entry.getKey());
+            }
+        }
+
+        final Set<StripData.Member> toCheckForLambdas = new HashSet<>();
+        final MemberSet stripFields = new MemberSet();
+        for (final Map.Entry<StripData.Member, List<MemberAnnotation>> entry : fieldAnnotations.entrySet()) {
+            for (final MemberAnnotation annotation : entry.getValue()) {
+                if (strips.test(annotation.annotation)) {
+                    stripFields.add(entry.getKey());
+                    if (annotation.stripLambdas) {
+                        toCheckForLambdas.add(entry.getKey());
+                    }
+                }
+            }
+        }
+
+        final MemberSet stripMethods = new MemberSet();
+        for (final Map.Entry<StripData.Member, List<MemberAnnotation>> entry : methodAnnotations.entrySet()) {
+            for (final MemberAnnotation annotation : entry.getValue()) {
+                if (strips.test(annotation.annotation)) {
+                    stripMethods.add(entry.getKey());
+                    if (annotation.stripLambdas) {
+                        toCheckForLambdas.add(entry.getKey());
+                    }
+                }
+            }
+        }
+        if (hierarchy != null && !stripInterfaces.isEmpty()) {
+            // The methods that only implemented stripped interfaces go with them, unless kept code in the class still
+            // calls or references them directly. Calls from other classes can't be seen here.
+            final Set<StripData.Member> implementations = new LinkedHashSet<>(hierarchy.findImplementations(
+                superName, interfaces, stripInterfaces, instanceMethods, bridgeTargets
+            ));
+            // Keeping a method keeps whatever it uses in turn
+            boolean changed;
+            do {
+                changed = implementations.removeIf(method ->
+                    isReferencedFromKept(method, stripFields, stripMethods, implementations)
+                );
+            } while (changed);
+            for (final StripData.Member method : implementations) {
+                if (stripMethods.add(method)) {
+                    toCheckForLambdas.add(method);
+                }
+            }
+        }
+        final MemberSet foldMethods = new MemberSet();
+        final Map<StripData.Member, List<StripData.Member>> lambdaTargets = foldLambdaTargets(constants, foldMethods);
+        if (lambdaTargets != this.lambdaTargets) {
+            // Lambda bodies that were only used in code removed by folding go as well. Named methods, such as the targets
+            // of method references, are left alone, as nothing asked for them to be removed.
+            final Set<StripData.Member> stillUsed = new HashSet<>();
+            lambdaTargets.values().forEach(stillUsed::addAll);
+            for (final List<StripData.Member> targets : this.lambdaTargets.values()) {
+                for (final StripData.Member target : targets) {
+                    if (
+                        !stillUsed.contains(target) &&
+                            syntheticMethods.contains(target) &&
+                            !isCalledFromKept(target, stripMethods) &&
+                            stripMethods.add(target)
+                    ) {
+                        toCheckForLambdas.add(target);
+                    }
+                }
+            }
+        }
+        resolveLambdas(lambdaTargets, stripMethods, toCheckForLambdas);
+
+        final boolean entireClass = anyMatch(classAnnotations, strips);
+        StripData result = new StripData(
+            entireClass,
+            stripFields,
+            stripMethods,
+            stripInterfaces,
+            annotationDescriptors,
+            configuredAnnotations
+        );
+        if (className != null) {
+            // Without a parse, which members carry annotations is unknown, so the output pass checks all of them
+            result = result.withAnnotated(annotatedFields, annotatedMethods);
+        }
+        if (entireClass || foldMethods.isEmpty()) {
+            return result;
+        }
+        final MemberSet keptFoldMethods = new MemberSet();
+        for (final StripData.Member member : foldMethods.toMembers()) {
+            if (!stripMethods.contains(member)) {
+                keptFoldMethods.add(member);
+            }
+        }
+        return result.withFolded(keptFoldMethods, constants);
+    }
+
+    private boolean isReferencedFromKept(
+        StripData.Member method,
+        MemberSet stripFields,
+        MemberSet stripMethods,
+        Set<StripData.Member> alsoStripped
+    ) {
+        final Set<StripData.Member> callers = directCallers.get(method);
+        if (callers != null) {
+            for (final StripData.Member caller : callers) {
+                if (!stripMethods.contains(caller) && !alsoStripped.contains(caller)) {
+                    return true;
+                }
+            }
+        }
+        // Method references made from kept code need the method to link
+        for (final Map.Entry<StripData.Member, List<StripData.Member>> entry : lambdaTargets.entrySet()) {
+            final StripData.Member user = entry.getKey();
+            if (
+                entry.getValue().contains(method) &&
+                    !stripFields.contains(user) &&
+                    !stripMethods.contains(user) &&
+                    !alsoStripped.contains(user)
+            ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCalledFromKept(StripData.Member method, MemberSet stripMethods) {
+        final Set<StripData.Member> callers = directCallers.get(method);
+        if (callers == null) {
+            return false;
+        }
+        for (final StripData.Member caller : callers) {
+            if (!stripMethods.contains(caller)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<StripData.Member, List<StripData.Member>> foldLambdaTargets(
+        Map<String, Object> constants,
+        MemberSet foldMethods
+    ) {
+        if (foldableMethods.isEmpty() || constants.isEmpty()) {
+            return lambdaTargets;
+        }
+        Map<StripData.Member, List<StripData.Member>> result = lambdaTargets;
+        for (final Map.Entry<StripData.Member, MethodNode> entry : foldableMethods.entrySet()) {
+            if (!ConstantFolder.referencesAny(entry.getValue(), constants.keySet())) continue;
+            if (result == lambdaTargets) {
+                result = new LinkedHashMap<>(lambdaTargets);
+            }
+            foldMethods.add(entry.getKey());
+            final List<StripData.Member> targets = ConstantFolder.findLambdaTargets(
+                className, constants, entry.getValue(), fieldAnnotations.keySet()
+            );
+            if (targets.isEmpty()) {
+                result.remove(entry.getKey());
+            } else {
+                result.put(entry.getKey(), targets);
+            }
+        }
+        return result;
+    }
+
+    private static void resolveLambdas(
+        Map<StripData.Member, List<StripData.Member>> lambdaTargets,
+        MemberSet stripMethods,
+        Set<StripData.Member> toCheckForLambdas
+    ) {
+        // Lambdas are stripped when they're referenced from a stripped method or the initializer of a stripped field,
+        // and not from anything kept. Stripping a lambda checks its own lambdas in turn, so this is repeated until
+        // nothing new is found.
+        while (!toCheckForLambdas.isEmpty()) {
+            final Set<StripData.Member> additionalToStrip = new HashSet<>();
+            final Set<StripData.Member> additionalToNotStrip = new HashSet<>();
+            for (final Map.Entry<StripData.Member, List<StripData.Member>> entry : lambdaTargets.entrySet()) {
+                if (toCheckForLambdas.contains(entry.getKey())) {
+                    additionalToStrip.addAll(entry.getValue());
+                } else {
+                    additionalToNotStrip.addAll(entry.getValue());
+                }
+            }
+            toCheckForLambdas.clear();
+            additionalToStrip.removeAll(additionalToNotStrip);
+            additionalToStrip.removeIf(stripMethods::contains);
+            additionalToStrip.forEach(stripMethods::add);
+            toCheckForLambdas.addAll(additionalToStrip);
+        }
+    }
+
+    private static boolean anyMatch(List<AnnotationData> annotations, Predicate<AnnotationData> strips) {
+        for (final AnnotationData annotation : annotations) {
+            if (strips.test(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static StripData.Member getLambdaTarget(String className, Handle bootstrapMethodHandle, Object[] bootstrapMethodArguments) {
+        if (bootstrapMethodArguments.length != 3) return null;
+        if (!(bootstrapMethodArguments[1] instanceof Handle)) return null;
+        if (bootstrapMethodHandle.getTag() != Opcodes.H_INVOKESTATIC) return null;
+        if (!bootstrapMethodHandle.getName().equals("metafactory")) return null;
+        if (!bootstrapMethodHandle.getOwner().equals(LAMBDA_CLASS_NAME)) return null;
+        if (!bootstrapMethodHandle.getDesc().equals(LAMBDA_METHOD_DESCRIPTOR)) return null;
+        final Handle lambdaTarget = (Handle)bootstrapMethodArguments[1];
+        if (!lambdaTarget.getOwner().equals(className)) return null;
+        return new StripData.Member(lambdaTarget.getName(), lambdaTarget.getDesc());
+    }
+
+    /**
+     * Returns the field out of {@code fields} that the result of {@code indy} is stored straight into, if {@code method}
+     * is a constructor or static initializer of {@code className}, or {@code null} otherwise.
+     */
+    static StripData.Member getStoredField(
+        String className,
+        MethodNode method,
+        InvokeDynamicInsnNode indy,
+        Set<StripData.Member> fields
+    ) {
+        if (fields.isEmpty()) return null;
+        if (!method.name.equals("<init>") && !method.name.equals("<clinit>")) return null;
+        final AbstractInsnNode next = indy.getNext();
+        if (next == null) return null;
+        if (next.getOpcode() != Opcodes.PUTFIELD && next.getOpcode() != Opcodes.PUTSTATIC) return null;
+        final FieldInsnNode store = (FieldInsnNode)next;
+        if (!store.owner.equals(className)) return null;
+        final StripData.Member field = new StripData.Member(store.name, store.desc);
+        return fields.contains(field) ? field : null;
+    }
+
+    private static final class MemberAnnotation {
+        final AnnotationData annotation;
+        final boolean stripLambdas;
+
+        MemberAnnotation(AnnotationData annotation, boolean stripLambdas) {
+            this.annotation = annotation;
+            this.stripLambdas = stripLambdas;
+        }
+    }
+}
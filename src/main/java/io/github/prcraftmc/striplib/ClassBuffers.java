@@ -0,0 +1,75 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+final class ClassBuffers {
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private ClassBuffers() {
+    }
+
+    /**
+     * Creates a reader for the remaining bytes of a buffer, without changing its position. Heap buffers are read in
+     * place. Anything else is copied into a per-thread scratch array, so the reader must not outlive the current call.
+     */
+    static ClassReader newReader(ByteBuffer buffer) {
+        final int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            return new ClassReader(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        }
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[length];
+            if (length <= MAX_POOLED_SIZE) {
+                SCRATCH.set(scratch);
+            }
+        }
+        buffer.duplicate().get(scratch, 0, length);
+        return new ClassReader(scratch, 0, length);
+    }
+
+    static int writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return length;
+    }
+
+    static byte[] readFully(InputStream is, long size) throws IOException {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            return readAll(is);
+        }
+        // The size is known up front for most jar entries, so the result can be read straight into place
+        final byte[] result = new byte[(int)size];
+        int offset = 0;
+        while (offset < result.length) {
+            final int n = is.read(result, offset, result.length - offset);
+            if (n == -1) {
+                throw new IOException("Unexpected end of stream after " + offset + " of " + size + " bytes");
+            }
+            offset += n;
+        }
+        return result;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        byte[] result = new byte[8192];
+        int size = 0;
+        int n;
+        while ((n = is.read(result, size, result.length - size)) != -1) {
+            size += n;
+            if (size == result.length) {
+                result = Arrays.copyOf(result, size * 2);
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Looks up the methods declared by other classes, to find the methods of a class that only implement an interface
+ * stripped from it. Classes are read once, and cached for as long as the instance is in use.
+ */
+final class ClassHierarchy {
+    private static final ClassInfo MISSING = new ClassInfo();
+
+    private final Function<String, byte[]> classProvider;
+    private final ConcurrentMap<String, ClassInfo> classes = new ConcurrentHashMap<>();
+
+    ClassHierarchy(Function<String, byte[]> classProvider) {
+        this.classProvider = classProvider;
+    }
+
+    /**
+     * Returns the methods out of {@code methods} that implement a method of one of {@code stripInterfaces}, without
+     * also implementing or overriding a method of a supertype that's kept, along with the bridges that call them. If
+     * any of the supertypes can't be found, nothing is returned.
+     *
+     * @param methods The instance methods declared by the class, other than constructors.
+     * @param bridgeTargets The methods called by each of the bridge methods declared by the class.
+     */
+    Set<StripData.Member> findImplementations(
+        String superName,
+        String[] interfaces,
+        Set<String> stripInterfaces,
+        Set<StripData.Member> methods,
+        Map<StripData.Member, StripData.Member> bridgeTargets
+    ) {
+        final Set<StripData.Member> stripped = new HashSet<>();
+        for (final String stripInterface : stripInterfaces) {
+            if (!collectMethods(stripInterface, stripped, new HashSet<>())) {
+                return Collections.emptySet();
+            }
+        }
+        final Set<StripData.Member> kept = new HashSet<>();
+        final Set<String> visited = new HashSet<>();
+        if (superName != null && !collectMethods(superName, kept, visited)) {
+            return Collections.emptySet();
+        }
+        if (interfaces != null) {
+            for (final String keptInterface : interfaces) {
+                if (!stripInterfaces.contains(keptInterface) && !collectMethods(keptInterface, kept, visited)) {
+                    return Collections.emptySet();
+                }
+            }
+        }
+
+        // A bridge implements a method in place of the method it calls, so whatever the bridge is needed for, so is the
+        // method it calls
+        final Set<StripData.Member> required = new HashSet<>();
+        final Set<StripData.Member> result = new LinkedHashSet<>();
+        for (final StripData.Member method : methods) {
+            if (kept.contains(method)) {
+                required.add(method);
+            } else if (stripped.contains(method)) {
+                result.add(method);
+            }
+        }
+        for (final Map.Entry<StripData.Member, StripData.Member> bridge : bridgeTargets.entrySet()) {
+            if (required.contains(bridge.getKey())) {
+                required.add(bridge.getValue());
+            }
+        }
+        for (final Map.Entry<StripData.Member, StripData.Member> bridge : bridgeTargets.entrySet()) {
+            if (result.contains(bridge.getKey())) {
+                result.add(bridge.getValue());
+            }
+        }
+        for (final Map.Entry<StripData.Member, StripData.Member> bridge : bridgeTargets.entrySet()) {
+            if (result.contains(bridge.getValue()) && !required.contains(bridge.getKey())) {
+                result.add(bridge.getKey());
+            }
+        }
+        result.removeAll(required);
+        return result;
+    }
+
+    private boolean collectMethods(String name, Set<StripData.Member> into, Set<String> visited) {
+        if (!visited.add(name)) {
+            return true;
+        }
+        final ClassInfo info = classes.computeIfAbsent(name, this::readClass);
+        if (info == MISSING) {
+            return false;
+        }
+        into.addAll(info.methods);
+        if (info.superName != null && !collectMethods(info.superName, into, visited)) {
+            return false;
+        }
+        for (final String superInterface : info.interfaces) {
+            if (!collectMethods(superInterface, into, visited)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ClassInfo readClass(String name) {
+        final byte[] classFile = classProvider.apply(name);
+        if (classFile == null) {
+            return MISSING;
+        }
+        final ClassInfo result = new ClassInfo();
+        new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                result.superName = superName;
+                if (interfaces != null) {
+                    result.interfaces = interfaces;
+                }
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if (isOverridable(access, name)) {
+                    result.methods.add(new StripData.Member(name, descriptor));
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return result;
+    }
+
+    static boolean isOverridable(int access, String name) {
+        return (access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) == 0 && !name.equals("<init>");
+    }
+
+    private static final class ClassInfo {
+        String superName;
+        String[] interfaces = new String[0];
+        final Set<StripData.Member> methods = new HashSet<>();
+    }
+}
@@ -2,33 +2,37 @@ package io.github.prcraftmc.striplib;
 
 import org.objectweb.asm.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.annotation.Annotation;
-import java.lang.invoke.LambdaMetafactory;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class ClassStripper extends ClassVisitor {
-    private static final String LAMBDA_CLASS_NAME = Type.getInternalName(LambdaMetafactory.class);
-    private static final String LAMBDA_METHOD_DESCRIPTOR =
-        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
-
-    private final Map<Type, AnnotationData> annotations;
+    private final CompiledStripConfig config;
+    private final ClassVisitor delegate;
+    private final ClassAnalysis analysis;
 
     private boolean complete;
-    private String className, superName;
-    private String[] interfaces;
-
-    private boolean stripEntireClass;
-    private final Set<StripData.Member> stripFields = new HashSet<>();
-    private final Set<StripData.Member> stripMethods = new HashSet<>();
-    private final Map<StripData.Member, AnnotationData> toCheckForLambdas = new HashMap<>();
-    private final Set<String> stripInterfaces = new HashSet<>();
-
-    private ClassStripper(ClassVisitor delegate, Map<Type, AnnotationData> annotations) {
-        super(Opcodes.ASM9, delegate);
-        this.annotations = annotations;
+    private StripData result;
+    private long startTime;
+
+    ClassStripper(ClassVisitor delegate, CompiledStripConfig config) {
+        this(delegate, config, new ClassAnalysis(
+            delegate, config.matchers, config.configuredAnnotations, config.constants.keySet(), config.hierarchy != null
+        ));
+    }
+
+    private ClassStripper(ClassVisitor delegate, CompiledStripConfig config, ClassAnalysis analysis) {
+        super(Opcodes.ASM9, analysis);
+        this.config = config;
+        this.delegate = delegate;
+        this.analysis = analysis;
     }
 
     @Override
@@ -36,155 +40,59 @@ public class ClassStripper extends ClassVisitor {
         if (complete) {
             throw new IllegalStateException("ClassStripper instance may only be used once. If you wish to use your config multiple times, hold onto a ClassStripper.Builder instance as a factory.");
         }
-        this.className = name;
-        this.superName = superName;
-        this.interfaces = interfaces != null ? Arrays.copyOf(interfaces, interfaces.length) : null;
-        super.visit(version, access, name, signature, superName, interfaces);
-    }
-
-    @Override
-    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-        if (annotations.containsKey(Type.getType(descriptor))) {
-            stripEntireClass = true;
-        }
-        return super.visitAnnotation(descriptor, visible);
-    }
-
-    @Override
-    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
-        final TypeReference ref = new TypeReference(typeRef);
-        if (ref.getSort() == TypeReference.CLASS_EXTENDS && annotations.containsKey(Type.getType(descriptor))) {
-            if (ref.getSuperTypeIndex() == -1) {
-                throw new IllegalArgumentException("Cannot strip superclass " + superName + " from class " + className);
-            } else {
-                stripInterfaces.add(interfaces[ref.getSuperTypeIndex()]);
-            }
+        if (config.listener != StripListener.NOOP && startTime == 0) {
+            startTime = System.nanoTime();
         }
-        return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
-    }
-
-    @Override
-    public FieldVisitor visitField(int access, String name, String fieldDescriptor, String signature, Object value) {
-        return new FieldVisitor(api, super.visitField(access, name, fieldDescriptor, signature, value)) {
-            @Override
-            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                if (annotations.containsKey(Type.getType(descriptor))) {
-                    stripFields.add(new StripData.Member(name, Type.getType(fieldDescriptor)));
-                }
-                return super.visitAnnotation(descriptor, visible);
-            }
-        };
+        super.visit(version, access, name, signature, superName, interfaces);
     }
 
     @Override
-    public MethodVisitor visitMethod(int access, String name, String methodDescriptor, String signature, String[] exceptions) {
-        return new MethodVisitor(api, super.visitMethod(access, name, methodDescriptor, signature, exceptions)) {
-            @Override
-            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                final AnnotationData annotation = annotations.get(Type.getType(descriptor));
-                if (annotation != null) {
-                    final StripData.Member member = new StripData.Member(name, Type.getMethodType(methodDescriptor));
-                    stripMethods.add(member);
-                    if (annotation.stripLambdasKey != null) {
-                        return new AnnotationVisitor(api, super.visitAnnotation(descriptor, visible)) {
-                            boolean hasFoundParam = false;
-
-                            @Override
-                            public void visit(String name, Object value) {
-                                if (name.equals(annotation.stripLambdasKey)) {
-                                    hasFoundParam = true;
-                                    if ((boolean)value) {
-                                        toCheckForLambdas.put(member, annotation);
-                                    }
-                                }
-                                super.visit(name, value);
-                            }
-
-                            @Override
-                            public void visitEnd() {
-                                if (!hasFoundParam && annotation.defaultStripLambdas) {
-                                    toCheckForLambdas.put(member, annotation);
-                                }
-                                super.visitEnd();
-                            }
-                        };
-                    } else if (annotation.defaultStripLambdas) {
-                        toCheckForLambdas.put(member, annotation);
-                    }
-                }
-                return super.visitAnnotation(descriptor, visible);
-            }
-        };
+    public void visitEnd() {
+        complete(analysis.getClassName(), 1);
+        super.visitEnd();
     }
 
-    @Override
-    public void visitEnd() {
+    private void complete(String className, int passes) {
         complete = true;
-        super.visitEnd();
+        // Every annotation in the config strips in this environment
+        result = analysis.resolve(
+            a -> true, config.annotations.keySet(), config.configuredAnnotations, config.constants, config.hierarchy
+        );
+        if (config.listener != StripListener.NOOP) {
+            config.listener.classAnalyzed(className, config.getEnvironment(), result, passes, System.nanoTime() - startTime);
+        }
     }
 
+    /**
+     * Always returns {@code false}, as lambdas are resolved from what's recorded during the first pass, so no extra
+     * passes are ever needed.
+     *
+     * @deprecated Does nothing. Lambdas are found by {@link #calcStripData}.
+     */
+    @Deprecated
     public boolean needsLambdaStripping() {
         if (!complete) {
             throw new IllegalStateException("Cannot call needsLambdaStripping() on an incomplete ClassStripper");
         }
-        return !toCheckForLambdas.isEmpty();
+        return false;
     }
 
+    /**
+     * @deprecated Does nothing. Lambdas are found by {@link #calcStripData}.
+     */
+    @Deprecated
     public ClassVisitor findLambdasToStrip() {
         return findLambdasToStrip(null);
     }
 
+    /**
+     * Returns a visitor that only passes the class on to {@code delegate}.
+     *
+     * @deprecated Does nothing. Lambdas are found by {@link #calcStripData}.
+     */
+    @Deprecated
     public ClassVisitor findLambdasToStrip(ClassVisitor delegate) {
         return new ClassVisitor(api, delegate) {
-            private boolean closed;
-            private String className;
-
-            private final Map<StripData.Member, AnnotationData> additionalToStrip = new HashMap<>();
-            private final Map<StripData.Member, AnnotationData> additionalToNotStrip = new HashMap<>();
-
-            @Override
-            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-                if (closed) {
-                    throw new IllegalStateException("Cannot reuse ClassStripper.findLambdasToStrip visitor");
-                }
-                className = name;
-                super.visit(version, access, name, signature, superName, interfaces);
-            }
-
-            @Override
-            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
-                final AnnotationData origin = toCheckForLambdas.remove(
-                    new StripData.Member(name, Type.getMethodType(descriptor))
-                );
-                final Map<StripData.Member, AnnotationData> addTo = origin != null ? additionalToStrip : additionalToNotStrip;
-                return new MethodVisitor(api, super.visitMethod(access, name, descriptor, signature, exceptions)) {
-                    @Override
-                    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
-                        if (bootstrapMethodArguments.length != 3) return;
-                        if (!(bootstrapMethodArguments[1] instanceof Handle)) return;
-                        if (bootstrapMethodHandle.getTag() != Opcodes.H_INVOKESTATIC) return;
-                        if (!bootstrapMethodHandle.getName().equals("metafactory")) return;
-                        if (!bootstrapMethodHandle.getOwner().equals(LAMBDA_CLASS_NAME)) return;
-                        if (!bootstrapMethodHandle.getDesc().equals(LAMBDA_METHOD_DESCRIPTOR)) return;
-                        final Handle lambdaTarget = (Handle)bootstrapMethodArguments[1];
-                        if (lambdaTarget.getOwner().equals(className)) {
-                            addTo.put(
-                                new StripData.Member(lambdaTarget.getName(), Type.getMethodType(lambdaTarget.getDesc())),
-                                origin
-                            );
-                        }
-                    }
-                };
-            }
-
-            @Override
-            public void visitEnd() {
-                closed = true;
-                additionalToStrip.keySet().removeAll(additionalToNotStrip.keySet());
-                stripMethods.addAll(additionalToStrip.keySet());
-                toCheckForLambdas.putAll(additionalToStrip);
-                super.visitEnd();
-            }
         };
     }
 
@@ -192,46 +100,112 @@ public class ClassStripper extends ClassVisitor {
         if (!complete) {
             throw new IllegalStateException("Cannot call stripEntireClass() on an incomplete ClassStripper");
         }
-        return stripEntireClass;
+        return result.stripEntireClass();
     }
 
     public boolean stripNothing() {
         if (!complete) {
             throw new IllegalStateException("Cannot call stripEntireClass() on an incomplete ClassStripper");
         }
-        return !stripEntireClass && stripFields.isEmpty() && stripMethods.isEmpty() && stripInterfaces.isEmpty();
+        return result.isEmpty();
     }
 
     public StripData getResult() {
         if (!complete) {
             throw new IllegalStateException("Cannot call getResult() on an incomplete ClassStripper");
         }
-        if (!toCheckForLambdas.isEmpty()) {
-            throw new IllegalStateException("Must visit class with findLambdasToStrip() while needsLambdaStripping() returns true");
-        }
-        return new StripData(stripEntireClass, stripFields, stripMethods, stripInterfaces, annotations.keySet());
+        return result;
+    }
+
+    public boolean mayNeedStripping(ClassReader reader) {
+        return config.mayNeedStripping(reader);
     }
 
+    /**
+     * Analyzes the class. Without a delegate, the class is read with only the options the analysis needs, and
+     * {@code parsingOptions} is ignored.
+     */
     public StripData calcStripData(ClassReader reader, int parsingOptions) {
-        return calcStripData(v -> reader.accept(v, parsingOptions));
+        return calcStripData(reader, parsingOptions, null);
+    }
+
+    /**
+     * @param referencesLambdaMetafactory Whether the class is known to reference {@code LambdaMetafactory}, or
+     *                                    {@code null} to check its constant pool.
+     */
+    StripData calcStripData(ClassReader reader, int parsingOptions, Boolean referencesLambdaMetafactory) {
+        if (config.listener != StripListener.NOOP && !complete) {
+            startTime = System.nanoTime();
+        }
+        final int prescan = config.prescan(reader);
+        if (referencesLambdaMetafactory == null) {
+            return calcStripData(reader, parsingOptions, prescan);
+        }
+        return calcStripData(
+            reader,
+            parsingOptions,
+            referencesLambdaMetafactory
+                ? prescan | CompiledStripConfig.PRESCAN_LAMBDA_METAFACTORY
+                : prescan & ~CompiledStripConfig.PRESCAN_LAMBDA_METAFACTORY
+        );
+    }
+
+    /**
+     * @param prescan The result of {@link CompiledStripConfig#prescan} for the class, so that its constant pool isn't
+     *                scanned again.
+     */
+    StripData calcStripData(ClassReader reader, int parsingOptions, int prescan) {
+        if (config.listener != StripListener.NOOP && !complete && startTime == 0) {
+            startTime = System.nanoTime();
+        }
+        if (delegate == null && !complete && !CompiledStripConfig.mayNeedStripping(prescan)) {
+            // None of the annotations are referenced anywhere in the constant pool, so there's nothing to find
+            complete(reader.getClassName(), 0);
+            return result;
+        }
+        final boolean referencesConstants = complete || (prescan & CompiledStripConfig.PRESCAN_CONSTANTS) != 0;
+        if (!referencesConstants) {
+            analysis.ignoreConstants();
+        }
+        if (delegate != null) {
+            return calcStripData(v -> reader.accept(v, parsingOptions));
+        }
+        // Nothing is passed on, so only what the analysis needs is read
+        final int analysisOptions = CompiledStripConfig.getAnalysisOptions(
+            referencesConstants || config.hierarchy != null,
+            (prescan & CompiledStripConfig.PRESCAN_LAMBDA_METAFACTORY) != 0
+        );
+        return calcStripData(v -> reader.accept(v, analysisOptions));
     }
 
     public StripData calcStripData(Consumer<ClassVisitor> provider) {
         provider.accept(this);
-        while (needsLambdaStripping()) {
-            provider.accept(findLambdasToStrip());
-        }
         return getResult();
     }
 
     public ClassVisitor strip(ClassReader reader, int parsingOptions, ClassVisitor output) {
-        return strip(v -> reader.accept(v, parsingOptions), output);
+        final StripData data = calcStripData(reader, parsingOptions);
+        if (!data.stripEntireClass()) {
+            final long start = config.listener != StripListener.NOOP ? System.nanoTime() : 0;
+            reader.accept(data.visitor(output, config.outputOptions), parsingOptions);
+            if (config.listener != StripListener.NOOP) {
+                config.listener.classWritten(
+                    reader.getClassName(), config.getEnvironment(), data, -1, -1, System.nanoTime() - start
+                );
+            }
+        }
+        return output;
+    }
+
+    public byte[] strip(byte[] classFile, int parsingOptions) {
+        final ClassReader reader = new ClassReader(classFile);
+        return config.write(calcStripData(reader, parsingOptions), classFile, reader, parsingOptions);
     }
 
     public ClassVisitor strip(Consumer<ClassVisitor> provider, ClassVisitor output) {
         final StripData data = calcStripData(provider);
         if (!data.stripEntireClass()) {
-            provider.accept(data.visitor(output));
+            provider.accept(data.visitor(output, config.outputOptions));
         }
         return output;
     }
@@ -242,7 +216,14 @@ public class ClassStripper extends ClassVisitor {
 
     public static class Builder {
         private final List<AnnotationData> annotations = new ArrayList<>();
+        private final Map<String, Map<String, Object>> constants = new HashMap<>();
         private boolean defaultStripLambdas = true;
+        private StripListener listener = StripListener.NOOP;
+        private int outputOptions;
+        private ClassHierarchy hierarchy;
+        // Compiled on first use, and dropped whenever the configuration changes
+        private final Map<String, CompiledStripConfig> compiled = new ConcurrentHashMap<>();
+        private volatile MultiEnvironmentConfig compiledAll;
 
         private Builder() {
         }
@@ -261,6 +242,48 @@ public class ClassStripper extends ClassVisitor {
 
         public Builder annotation(String environment, Type annotation, String stripLambdasKey) {
             annotations.add(new AnnotationData(environment, annotation, stripLambdasKey, defaultStripLambdas));
+            changed();
+            return this;
+        }
+
+        public Builder annotation(String environment, Class<? extends Annotation> annotation, String element, Object value) {
+            return annotation(environment, Type.getType(annotation), element, value, null);
+        }
+
+        public Builder annotation(String environment, Type annotation, String element, Object value) {
+            return annotation(environment, annotation, element, value, null);
+        }
+
+        /**
+         * Registers an annotation that only strips when its {@code element} has the given value, such as
+         * {@code @OnlyIn(Dist.CLIENT)}. The value may be an {@link Enum} constant, an enum constant given the way ASM
+         * represents them, as {@code new String[] {descriptor, name}}, a {@link Type} for a class literal, a
+         * {@link String}, or a boxed primitive. Values inside arrays aren't matched.
+         */
+        public Builder annotation(String environment, Type annotation, String element, Object value, String stripLambdasKey) {
+            annotations.add(new AnnotationData(
+                environment, annotation, Objects.requireNonNull(element, "element"), value, stripLambdasKey, defaultStripLambdas
+            ));
+            changed();
+            return this;
+        }
+
+        public Builder environmentConstant(String environment, Class<?> owner, String name, String descriptor, Object value) {
+            return environmentConstant(environment, Type.getType(owner), name, descriptor, value);
+        }
+
+        /**
+         * Declares that a static field, or a static method without parameters, always has the given value in an
+         * environment. When stripping for that environment, uses of it are replaced by the value, and the code that
+         * can then never run is removed, along with any lambdas that only it used. The value must be a
+         * {@link String} or a boxed primitive of the constant's type.
+         */
+        public Builder environmentConstant(String environment, Type owner, String name, String descriptor, Object value) {
+            constants.computeIfAbsent(Objects.requireNonNull(environment, "environment"), k -> new HashMap<>()).put(
+                ConstantFolder.getKey(owner.getInternalName(), name, descriptor),
+                ConstantFolder.checkValue(descriptor, Objects.requireNonNull(value, "value"))
+            );
+            changed();
             return this;
         }
 
@@ -269,17 +292,131 @@ public class ClassStripper extends ClassVisitor {
             return this;
         }
 
+        public Builder listener(StripListener listener) {
+            this.listener = Objects.requireNonNull(listener, "listener");
+            changed();
+            return this;
+        }
+
+        public Builder outputOptions(int outputOptions) {
+            this.outputOptions = outputOptions;
+            changed();
+            return this;
+        }
+
+        /**
+         * Also strips the methods that implement a stripped interface, and the bridges that call them, unless they
+         * implement or override a method of a supertype that's kept as well. The supertypes of each class are looked
+         * up by internal name with {@code classProvider}, which returns the class file, or {@code null} if the class
+         * can't be found. Nothing is removed from a class with supertypes that can't be found, so the provider
+         * should find library and JDK classes too.
+         * <p>
+         * Implementations that kept code in the same class still calls or references directly are kept. Calls made
+         * from other classes can't be seen, so only use this when those go through the stripped interface. The
+         * supertypes are read once and then cached.
+         */
+        public Builder stripInterfaceImplementations(Function<String, byte[]> classProvider) {
+            this.hierarchy = new ClassHierarchy(Objects.requireNonNull(classProvider, "classProvider"));
+            changed();
+            return this;
+        }
+
+        /**
+         * Strips the implementations of stripped interfaces, looking up supertypes from the resources of
+         * {@code classLoader}. See {@link #stripInterfaceImplementations(Function)}.
+         */
+        public Builder stripInterfaceImplementations(ClassLoader classLoader) {
+            Objects.requireNonNull(classLoader, "classLoader");
+            return stripInterfaceImplementations(name -> {
+                try (InputStream input = classLoader.getResourceAsStream(name + ".class")) {
+                    return input != null ? ClassBuffers.readFully(input, -1) : null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
         public ClassStripper build(String environment) {
             return build(environment, null);
         }
 
         public ClassStripper build(String environment, ClassVisitor delegate) {
-            return new ClassStripper(
-                delegate,
+            return compile(environment).newStripper(delegate);
+        }
+
+        public Set<String> getEnvironments() {
+            final Set<String> result = new LinkedHashSet<>();
+            for (final AnnotationData annotation : annotations) {
+                result.add(annotation.environment);
+            }
+            return result;
+        }
+
+        Set<String> getAnnotationDescriptors() {
+            return annotations.stream().map(AnnotationData::getDescriptor).collect(Collectors.toSet());
+        }
+
+        /**
+         * Returns the names a class must reference to need any changes: the annotation descriptors, and the owners of
+         * environment constants.
+         */
+        Set<String> getPrescanNames() {
+            final Set<String> result = getAnnotationDescriptors();
+            constants.values().forEach(values -> result.addAll(CompiledStripConfig.getOwners(values.keySet())));
+            return result;
+        }
+
+        public StripIndex buildIndex(Path jar) throws IOException {
+            return StripIndex.build(jar, this);
+        }
+
+        /**
+         * Returns the configs for every environment. The result is reused until this builder is changed.
+         */
+        public MultiEnvironmentConfig compileAll() {
+            MultiEnvironmentConfig result = compiledAll;
+            if (result == null) {
+                final Map<String, CompiledStripConfig> configs = new LinkedHashMap<>();
+                for (final String environment : getEnvironments()) {
+                    configs.put(environment, compile(environment));
+                }
+                compiledAll = result = new MultiEnvironmentConfig(configs, annotations, listener, hierarchy);
+            }
+            return result;
+        }
+
+        public Map<String, StripData> calcStripDataForAllEnvironments(ClassReader reader, int parsingOptions) {
+            return compileAll().calcStripData(reader, parsingOptions);
+        }
+
+        public Map<String, byte[]> stripForAllEnvironments(byte[] classFile, int parsingOptions) {
+            return compileAll().strip(classFile, parsingOptions);
+        }
+
+        /**
+         * Returns the config for an environment. The result is reused until this builder is changed.
+         */
+        public CompiledStripConfig compile(String environment) {
+            return compiled.computeIfAbsent(Objects.requireNonNull(environment, "environment"), this::createConfig);
+        }
+
+        private CompiledStripConfig createConfig(String environment) {
+            return new CompiledStripConfig(
+                environment,
                 annotations.stream()
                     .filter(a -> !a.environment.equals(environment))
-                    .collect(Collectors.toMap(AnnotationData::getAnnotation, Function.identity()))
+                    .collect(Collectors.groupingBy(AnnotationData::getDescriptor)),
+                getAnnotationDescriptors(),
+                constants.getOrDefault(environment, Collections.emptyMap()),
+                listener,
+                outputOptions,
+                hierarchy
             );
         }
+
+        private void changed() {
+            compiled.clear();
+            compiledAll = null;
+        }
     }
 }
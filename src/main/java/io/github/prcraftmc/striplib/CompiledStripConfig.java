@@ -0,0 +1,300 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link ClassStripper.Builder} configuration resolved for a single environment.
+ * <p>
+ * Instances are immutable and may be shared freely between threads. The {@link ClassStripper} instances handed out by
+ * {@link #newStripper()} hold the per-class analysis state, and are not thread-safe; use a new one for each class.
+ */
+public final class CompiledStripConfig {
+    private static final int CONSTANT_UTF8_TAG = 1;
+    static final byte[][] LAMBDA_METAFACTORY = encodeDescriptors(
+        Collections.singleton("java/lang/invoke/LambdaMetafactory")
+    );
+    // The flags returned by prescan()
+    static final int PRESCAN_ANNOTATIONS = 1;
+    static final int PRESCAN_CONSTANTS = 2;
+    static final int PRESCAN_LAMBDA_METAFACTORY = 4;
+
+    private final String environment;
+    final Map<String, List<AnnotationData>> annotations;
+    final Map<String, AnnotationMatcher> matchers;
+    final Set<String> configuredAnnotations;
+    final Map<String, Object> constants;
+    final StripData emptyData;
+    private final byte[][] annotationDescriptors;
+    private final byte[][] constantOwners;
+    private final byte[][] configuredAnnotationDescriptors;
+    private final String fingerprint;
+    final StripListener listener;
+    final int outputOptions;
+    final ClassHierarchy hierarchy;
+
+    CompiledStripConfig(
+        String environment,
+        Map<String, List<AnnotationData>> annotations,
+        Set<String> configuredAnnotations,
+        Map<String, Object> constants,
+        StripListener listener,
+        int outputOptions,
+        ClassHierarchy hierarchy
+    ) {
+        this.environment = Objects.requireNonNull(environment, "environment");
+        this.listener = listener;
+        this.outputOptions = outputOptions;
+        this.hierarchy = hierarchy;
+        this.annotations = Collections.unmodifiableMap(annotations);
+        this.matchers = new HashMap<>();
+        annotations.forEach((descriptor, matching) -> matchers.putAll(AnnotationMatcher.compile(matching)));
+        this.configuredAnnotations = Collections.unmodifiableSet(configuredAnnotations);
+        this.annotationDescriptors = encodeDescriptors(annotations.keySet());
+        this.configuredAnnotationDescriptors = encodeDescriptors(configuredAnnotations);
+        this.constants = Collections.unmodifiableMap(constants);
+        this.constantOwners = encodeDescriptors(getOwners(constants.keySet()));
+        this.emptyData = new StripData(
+            false, new MemberSet(), new MemberSet(), Collections.emptySet(), this.annotations.keySet(), this.configuredAnnotations
+        );
+        this.fingerprint = environment + annotations.values()
+            .stream()
+            .flatMap(List::stream)
+            .map(a ->
+                ";" + a.environment + ',' + a.descriptor + ',' + a.stripLambdasKey + ',' + a.defaultStripLambdas + ',' + a.valueKey
+            )
+            .sorted()
+            .collect(Collectors.joining()) + configuredAnnotations.stream()
+            .sorted()
+            .map(descriptor -> "|" + descriptor)
+            .collect(Collectors.joining()) + new TreeMap<>(constants).entrySet()
+            .stream()
+            .map(constant -> "#" + constant.getKey() + '=' + constant.getValue())
+            .collect(Collectors.joining()) + (hierarchy != null ? "^hierarchy" : "");
+    }
+
+    public String getEnvironment() {
+        return environment;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public ClassStripper newStripper() {
+        return newStripper(null);
+    }
+
+    public ClassStripper newStripper(ClassVisitor delegate) {
+        return new ClassStripper(delegate, this);
+    }
+
+    public StripData calcStripData(ClassReader reader, int parsingOptions) {
+        return newStripper().calcStripData(reader, parsingOptions);
+    }
+
+    public byte[] strip(byte[] classFile, int parsingOptions) {
+        return newStripper().strip(classFile, parsingOptions);
+    }
+
+    StripData calcStripData(ClassReader reader, int parsingOptions, boolean referencesLambdaMetafactory) {
+        return newStripper().calcStripData(reader, parsingOptions, referencesLambdaMetafactory);
+    }
+
+    public boolean mayNeedStripping(ClassReader reader) {
+        return referencesAny(reader, annotationDescriptors) || mayReferenceConstants(reader);
+    }
+
+    boolean mayReferenceConstants(ClassReader reader) {
+        return referencesAny(reader, constantOwners);
+    }
+
+    /**
+     * Checks the constant pool for the annotations, the owners of the constants, and {@code LambdaMetafactory}, all
+     * in one scan, for the paths where each class would otherwise be scanned for each of them in turn.
+     *
+     * @return The {@code PRESCAN_} flags of the names the class references.
+     */
+    int prescan(ClassReader reader) {
+        final int all = PRESCAN_ANNOTATIONS | PRESCAN_CONSTANTS | PRESCAN_LAMBDA_METAFACTORY;
+        int result = 0;
+        for (int i = 1, n = reader.getItemCount(); i < n && result != all; i++) {
+            final int offset = reader.getItem(i);
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_UTF8_TAG) continue;
+            final int length = reader.readUnsignedShort(offset);
+            if ((result & PRESCAN_ANNOTATIONS) == 0 && matchesAny(reader, offset, length, annotationDescriptors)) {
+                result |= PRESCAN_ANNOTATIONS;
+            } else if ((result & PRESCAN_CONSTANTS) == 0 && matchesAny(reader, offset, length, constantOwners)) {
+                result |= PRESCAN_CONSTANTS;
+            } else if (
+                (result & PRESCAN_LAMBDA_METAFACTORY) == 0 && matchesAny(reader, offset, length, LAMBDA_METAFACTORY)
+            ) {
+                result |= PRESCAN_LAMBDA_METAFACTORY;
+            }
+        }
+        return result;
+    }
+
+    static boolean mayNeedStripping(int prescan) {
+        return (prescan & (PRESCAN_ANNOTATIONS | PRESCAN_CONSTANTS)) != 0;
+    }
+
+    public StripData calcStripData(ByteBuffer classFile, int parsingOptions) {
+        return calcStripData(ClassBuffers.newReader(classFile), parsingOptions);
+    }
+
+    /**
+     * Strips the class in the remaining bytes of {@code classFile}, and writes the result to {@code output}. The
+     * position of {@code classFile} is left unchanged. Classes that don't need any changes are written straight from
+     * {@code classFile}.
+     *
+     * @return The number of bytes written, or {@code -1} if the entire class was stripped.
+     */
+    public int strip(ByteBuffer classFile, int parsingOptions, WritableByteChannel output) throws IOException {
+        final ClassReader reader = ClassBuffers.newReader(classFile);
+        final StripData data = calcStripData(reader, parsingOptions);
+        final long start = listener != StripListener.NOOP ? System.nanoTime() : 0;
+        final int result;
+        if (data.stripEntireClass()) {
+            result = -1;
+        } else {
+            final int outputOptions = getOutputOptions(data, reader);
+            result = ClassBuffers.writeFully(
+                output,
+                data.needsRewrite(outputOptions)
+                    ? ByteBuffer.wrap(data.rewrite(reader, parsingOptions, outputOptions))
+                    : classFile.duplicate()
+            );
+        }
+        if (listener != StripListener.NOOP) {
+            listener.classWritten(
+                reader.getClassName(), environment, data, classFile.remaining(), Math.max(result, 0), System.nanoTime() - start
+            );
+        }
+        return result;
+    }
+
+    /**
+     * Strips the class file open in {@code classFile}, by memory-mapping it. See
+     * {@link #strip(ByteBuffer, int, WritableByteChannel)}.
+     */
+    public int strip(FileChannel classFile, int parsingOptions, WritableByteChannel output) throws IOException {
+        return strip(classFile.map(FileChannel.MapMode.READ_ONLY, 0, classFile.size()), parsingOptions, output);
+    }
+
+    byte[] write(StripData data, byte[] classFile, ClassReader reader, int parsingOptions) {
+        final int outputOptions = getOutputOptions(data, reader);
+        if (listener == StripListener.NOOP) {
+            return data.write(classFile, reader, parsingOptions, outputOptions);
+        }
+        final long start = System.nanoTime();
+        final byte[] result = data.write(classFile, reader, parsingOptions, outputOptions);
+        listener.classWritten(
+            reader.getClassName(), environment, data, classFile.length, result != null ? result.length : 0, System.nanoTime() - start
+        );
+        return result;
+    }
+
+    private int getOutputOptions(StripData data, ClassReader reader) {
+        if (
+            (outputOptions & StripData.REMOVE_STRIP_ANNOTATIONS) != 0 && data.isEmpty() &&
+                !referencesAny(reader, configuredAnnotationDescriptors)
+        ) {
+            // Nothing to remove, so the class can be passed through untouched
+            return outputOptions & ~StripData.REMOVE_STRIP_ANNOTATIONS;
+        }
+        return outputOptions;
+    }
+
+    /**
+     * Returns the parsing options for a pass that only analyzes the class. Frames and debug info are never needed, and
+     * code is only read when it may create lambdas, or when {@code needsCode}, such as for environment constants or
+     * finding the targets of bridge methods.
+     */
+    static int getAnalysisOptions(ClassReader reader, boolean needsCode) {
+        return getAnalysisOptions(needsCode, !needsCode && referencesAny(reader, LAMBDA_METAFACTORY));
+    }
+
+    /**
+     * Returns the parsing options for an analysis pass, for a class already known to reference
+     * {@code LambdaMetafactory} or not, such as from a {@link StripIndex}.
+     */
+    static int getAnalysisOptions(boolean needsCode, boolean referencesLambdaMetafactory) {
+        final int options = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+        if (needsCode || referencesLambdaMetafactory) {
+            return options;
+        }
+        return options | ClassReader.SKIP_CODE;
+    }
+
+    static Set<String> getOwners(Collection<String> constantKeys) {
+        return constantKeys.stream()
+            .map(key -> key.substring(0, key.indexOf('.')))
+            .collect(Collectors.toSet());
+    }
+
+    static byte[][] encodeDescriptors(Collection<String> descriptors) {
+        return descriptors.stream()
+            .map(CompiledStripConfig::encodeUtf8)
+            .toArray(byte[][]::new);
+    }
+
+    static boolean referencesAny(ClassReader reader, byte[][] annotationDescriptors) {
+        if (annotationDescriptors.length == 0) {
+            return false;
+        }
+        for (int i = 1, n = reader.getItemCount(); i < n; i++) {
+            final int offset = reader.getItem(i);
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_UTF8_TAG) continue;
+            if (matchesAny(reader, offset, reader.readUnsignedShort(offset), annotationDescriptors)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(ClassReader reader, int offset, int length, byte[][] descriptors) {
+        for (final byte[] descriptor : descriptors) {
+            if (descriptor.length == length && utf8Equals(reader, offset + 2, descriptor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean utf8Equals(ClassReader reader, int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if ((byte)reader.readByte(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encodeUtf8(String value) {
+        // Class files store strings as "modified" UTF-8
+        final byte[] result = new byte[value.length() * 3];
+        int size = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x01 && c <= 0x7f) {
+                result[size++] = (byte)c;
+            } else if (c <= 0x7ff) {
+                result[size++] = (byte)(0xc0 | c >> 6 & 0x1f);
+                result[size++] = (byte)(0x80 | c & 0x3f);
+            } else {
+                result[size++] = (byte)(0xe0 | c >> 12 & 0xf);
+                result[size++] = (byte)(0x80 | c >> 6 & 0x3f);
+                result[size++] = (byte)(0x80 | c & 0x3f);
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
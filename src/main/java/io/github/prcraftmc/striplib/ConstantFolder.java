@@ -0,0 +1,479 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * Replaces the environment constants referenced by a method with their values, and removes the code that can't be
+ * reached once the conditional jumps on those values are decided. See
+ * {@link ClassStripper.Builder#environmentConstant(String, Type, String, String, Object)}.
+ */
+final class ConstantFolder {
+    private final String className;
+    private final Map<String, Object> constants;
+    private final MethodNode method;
+    private final Set<LabelNode> jumpTargets = new HashSet<>();
+    private final Map<AbstractInsnNode, Decision> decisions = new HashMap<>();
+    private boolean hasSubroutines;
+
+    private ConstantFolder(String className, Map<String, Object> constants, MethodNode method) {
+        this.className = className;
+        this.constants = constants;
+        this.method = method;
+    }
+
+    static boolean referencesAny(MethodNode method, Set<String> constantKeys) {
+        for (final AbstractInsnNode insn : method.instructions) {
+            final String key = getKey(insn);
+            if (key != null && constantKeys.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the lambdas that are still created by the method once it's been folded, without modifying it. Lambdas
+     * stored straight into one of {@code storedFields} are left out, as they're attributed to the field instead.
+     */
+    static List<StripData.Member> findLambdaTargets(
+        String className,
+        Map<String, Object> constants,
+        MethodNode method,
+        Set<StripData.Member> storedFields
+    ) {
+        final ConstantFolder folder = new ConstantFolder(className, constants, method);
+        folder.decide();
+        final boolean[] reachable = folder.findReachable();
+        final List<StripData.Member> result = new ArrayList<>();
+        int i = 0;
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (reachable[i++] && insn instanceof InvokeDynamicInsnNode) {
+                final InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode)insn;
+                final StripData.Member target = ClassAnalysis.getLambdaTarget(className, indy.bsm, indy.bsmArgs);
+                if (target != null && ClassAnalysis.getStoredField(className, method, indy, storedFields) == null) {
+                    result.add(target);
+                }
+            }
+        }
+        return result;
+    }
+
+    static void fold(String className, Map<String, Object> constants, MethodNode method) {
+        new ConstantFolder(className, constants, method).fold();
+    }
+
+    private void fold() {
+        decide();
+        final boolean[] reachable = findReachable();
+        final AbstractInsnNode[] insns = method.instructions.toArray();
+        final Set<AbstractInsnNode> toRemove = new HashSet<>();
+        for (int i = 0; i < insns.length; i++) {
+            if (!reachable[i] && (insns[i].getOpcode() >= 0 || insns[i] instanceof FrameNode)) {
+                toRemove.add(insns[i]);
+            }
+        }
+        final Map<AbstractInsnNode, AbstractInsnNode> replacements = new HashMap<>();
+        decisions.forEach((branch, decision) -> {
+            if (toRemove.contains(branch)) return;
+            toRemove.addAll(decision.operands);
+            if (decision.target != null) {
+                replacements.put(branch, new JumpInsnNode(Opcodes.GOTO, decision.target));
+            } else {
+                toRemove.add(branch);
+            }
+        });
+        for (final AbstractInsnNode insn : insns) {
+            final String key = getKey(insn);
+            if (key != null && !toRemove.contains(insn) && constants.containsKey(key)) {
+                replacements.put(insn, push(constants.get(key)));
+            }
+        }
+
+        if (!toRemove.isEmpty()) {
+            // Removing frames is only safe once none of them are relative to the one before
+            expandFrames();
+        }
+        replacements.forEach(method.instructions::set);
+        // Labels are kept, since they may be referenced from debug info
+        toRemove.forEach(method.instructions::remove);
+        removeDanglingNodes(FrameNode.class);
+        removeDanglingNodes(LineNumberNode.class);
+        method.tryCatchBlocks.removeIf(tryCatch -> !hasCode(tryCatch.start, tryCatch.end));
+        if (method.localVariables != null) {
+            method.localVariables.removeIf(local -> !hasCode(local.start, local.end));
+        }
+    }
+
+    private void decide() {
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof JumpInsnNode) {
+                jumpTargets.add(((JumpInsnNode)insn).label);
+                hasSubroutines |= insn.getOpcode() == Opcodes.JSR;
+            } else if (insn instanceof TableSwitchInsnNode) {
+                jumpTargets.add(((TableSwitchInsnNode)insn).dflt);
+                jumpTargets.addAll(((TableSwitchInsnNode)insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                jumpTargets.add(((LookupSwitchInsnNode)insn).dflt);
+                jumpTargets.addAll(((LookupSwitchInsnNode)insn).labels);
+            }
+        }
+        for (final TryCatchBlockNode tryCatch : method.tryCatchBlocks) {
+            jumpTargets.add(tryCatch.start);
+            jumpTargets.add(tryCatch.end);
+            jumpTargets.add(tryCatch.handler);
+        }
+        if (hasSubroutines) return;
+
+        for (final AbstractInsnNode insn : method.instructions) {
+            final int opcode = insn.getOpcode();
+            if (opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE) {
+                final AbstractInsnNode operand = getOperand(insn);
+                final Integer value = getIntValue(operand);
+                if (value != null) {
+                    decisions.put(insn, new Decision(
+                        compare(opcode - Opcodes.IFEQ, value, 0) ? ((JumpInsnNode)insn).label : null, operand
+                    ));
+                }
+            } else if (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ICMPLE) {
+                final AbstractInsnNode operand2 = getOperand(insn);
+                final AbstractInsnNode operand1 = getOperand(operand2);
+                final Integer value2 = getIntValue(operand2);
+                final Integer value1 = getIntValue(operand1);
+                if (value1 != null && value2 != null) {
+                    decisions.put(insn, new Decision(
+                        compare(opcode - Opcodes.IF_ICMPEQ, value1, value2) ? ((JumpInsnNode)insn).label : null,
+                        operand1,
+                        operand2
+                    ));
+                }
+            } else if (insn instanceof TableSwitchInsnNode) {
+                final TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode)insn;
+                final AbstractInsnNode operand = getOperand(insn);
+                final Integer value = getIntValue(operand);
+                if (value != null) {
+                    decisions.put(insn, new Decision(
+                        value >= tableSwitch.min && value <= tableSwitch.max
+                            ? tableSwitch.labels.get(value - tableSwitch.min)
+                            : tableSwitch.dflt,
+                        operand
+                    ));
+                }
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                final LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode)insn;
+                final AbstractInsnNode operand = getOperand(insn);
+                final Integer value = getIntValue(operand);
+                if (value != null) {
+                    final int index = lookupSwitch.keys.indexOf(value);
+                    decisions.put(insn, new Decision(
+                        index != -1 ? lookupSwitch.labels.get(index) : lookupSwitch.dflt, operand
+                    ));
+                }
+            }
+        }
+    }
+
+    private static boolean compare(int condition, int value1, int value2) {
+        // In the order of IFEQ, IFNE, IFLT, IFGE, IFGT and IFLE
+        switch (condition) {
+            case 0:
+                return value1 == value2;
+            case 1:
+                return value1 != value2;
+            case 2:
+                return value1 < value2;
+            case 3:
+                return value1 >= value2;
+            case 4:
+                return value1 > value2;
+            default:
+                return value1 <= value2;
+        }
+    }
+
+    private AbstractInsnNode getOperand(AbstractInsnNode insn) {
+        // The instruction pushing the value consumed by insn, as long as nothing can jump in between them
+        if (insn == null) {
+            return null;
+        }
+        for (AbstractInsnNode prev = insn.getPrevious(); prev != null; prev = prev.getPrevious()) {
+            if (prev instanceof FrameNode || jumpTargets.contains(prev)) {
+                return null;
+            }
+            if (prev.getOpcode() >= 0) {
+                return prev;
+            }
+        }
+        return null;
+    }
+
+    private Integer getIntValue(AbstractInsnNode insn) {
+        if (insn == null) {
+            return null;
+        }
+        final int opcode = insn.getOpcode();
+        if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) {
+            return opcode - Opcodes.ICONST_0;
+        }
+        if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+            return ((IntInsnNode)insn).operand;
+        }
+        if (opcode == Opcodes.LDC && ((LdcInsnNode)insn).cst instanceof Integer) {
+            return (Integer)((LdcInsnNode)insn).cst;
+        }
+        final String key = getKey(insn);
+        if (key != null) {
+            final Object value = constants.get(key);
+            return value instanceof Integer ? (Integer)value : null;
+        }
+        return null;
+    }
+
+    private boolean[] findReachable() {
+        final InsnList insns = method.instructions;
+        final boolean[] reachable = new boolean[insns.size()];
+        final Deque<AbstractInsnNode> toVisit = new ArrayDeque<>();
+        mark(insns.getFirst(), reachable, toVisit);
+        final List<TryCatchBlockNode> unreachedHandlers = new ArrayList<>(method.tryCatchBlocks);
+        boolean changed = true;
+        while (changed) {
+            while (!toVisit.isEmpty()) {
+                final AbstractInsnNode insn = toVisit.pop();
+                final Decision decision = decisions.get(insn);
+                if (decision != null) {
+                    mark(decision.target != null ? decision.target : insn.getNext(), reachable, toVisit);
+                    continue;
+                }
+                if (insn instanceof JumpInsnNode) {
+                    mark(((JumpInsnNode)insn).label, reachable, toVisit);
+                } else if (insn instanceof TableSwitchInsnNode) {
+                    mark(((TableSwitchInsnNode)insn).dflt, reachable, toVisit);
+                    ((TableSwitchInsnNode)insn).labels.forEach(label -> mark(label, reachable, toVisit));
+                } else if (insn instanceof LookupSwitchInsnNode) {
+                    mark(((LookupSwitchInsnNode)insn).dflt, reachable, toVisit);
+                    ((LookupSwitchInsnNode)insn).labels.forEach(label -> mark(label, reachable, toVisit));
+                }
+                if (!isUnconditionalExit(insn)) {
+                    mark(insn.getNext(), reachable, toVisit);
+                }
+            }
+            // A handler is reachable once anything it covers is
+            changed = unreachedHandlers.removeIf(tryCatch -> {
+                for (AbstractInsnNode insn = tryCatch.start; insn != tryCatch.end; insn = insn.getNext()) {
+                    if (insn.getOpcode() >= 0 && reachable[insns.indexOf(insn)]) {
+                        mark(tryCatch.handler, reachable, toVisit);
+                        return true;
+                    }
+                }
+                return false;
+            });
+        }
+        return reachable;
+    }
+
+    private void mark(AbstractInsnNode insn, boolean[] reachable, Deque<AbstractInsnNode> toVisit) {
+        if (insn == null) return;
+        final int index = method.instructions.indexOf(insn);
+        if (!reachable[index]) {
+            reachable[index] = true;
+            toVisit.push(insn);
+        }
+    }
+
+    private static boolean isUnconditionalExit(AbstractInsnNode insn) {
+        final int opcode = insn.getOpcode();
+        return opcode == Opcodes.GOTO ||
+            opcode == Opcodes.RET ||
+            opcode == Opcodes.ATHROW ||
+            opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN ||
+            insn instanceof TableSwitchInsnNode ||
+            insn instanceof LookupSwitchInsnNode;
+    }
+
+    private void expandFrames() {
+        final List<Object> locals = new ArrayList<>();
+        if ((method.access & Opcodes.ACC_STATIC) == 0) {
+            locals.add(method.name.equals("<init>") ? Opcodes.UNINITIALIZED_THIS : className);
+        }
+        for (final Type argument : Type.getArgumentTypes(method.desc)) {
+            switch (argument.getSort()) {
+                case Type.BOOLEAN:
+                case Type.CHAR:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.INT:
+                    locals.add(Opcodes.INTEGER);
+                    break;
+                case Type.FLOAT:
+                    locals.add(Opcodes.FLOAT);
+                    break;
+                case Type.LONG:
+                    locals.add(Opcodes.LONG);
+                    break;
+                case Type.DOUBLE:
+                    locals.add(Opcodes.DOUBLE);
+                    break;
+                default:
+                    locals.add(argument.getInternalName());
+            }
+        }
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (!(insn instanceof FrameNode)) continue;
+            final FrameNode frame = (FrameNode)insn;
+            List<Object> stack = Collections.emptyList();
+            switch (frame.type) {
+                case Opcodes.F_NEW:
+                case Opcodes.F_FULL:
+                    locals.clear();
+                    locals.addAll(frame.local);
+                    stack = frame.stack;
+                    break;
+                case Opcodes.F_APPEND:
+                    locals.addAll(frame.local);
+                    break;
+                case Opcodes.F_CHOP:
+                    locals.subList(locals.size() - frame.local.size(), locals.size()).clear();
+                    break;
+                case Opcodes.F_SAME1:
+                    stack = frame.stack;
+                    break;
+            }
+            frame.type = Opcodes.F_NEW;
+            frame.local = new ArrayList<>(locals);
+            frame.stack = new ArrayList<>(stack);
+        }
+    }
+
+    private void removeDanglingNodes(Class<? extends AbstractInsnNode> type) {
+        // Frames and line numbers apply to the next instruction, so one followed by another of its kind, or by
+        // nothing, is left over from removed code
+        AbstractInsnNode pending = null;
+        final List<AbstractInsnNode> toRemove = new ArrayList<>();
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (type.isInstance(insn)) {
+                if (pending != null) {
+                    toRemove.add(pending);
+                }
+                pending = insn;
+            } else if (insn.getOpcode() >= 0) {
+                pending = null;
+            }
+        }
+        if (pending != null) {
+            toRemove.add(pending);
+        }
+        toRemove.forEach(method.instructions::remove);
+    }
+
+    private static boolean hasCode(LabelNode start, LabelNode end) {
+        for (AbstractInsnNode insn = start; insn != null && insn != end; insn = insn.getNext()) {
+            if (insn.getOpcode() >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getKey(AbstractInsnNode insn) {
+        if (insn.getOpcode() == Opcodes.GETSTATIC) {
+            final FieldInsnNode fieldInsn = (FieldInsnNode)insn;
+            return getKey(fieldInsn.owner, fieldInsn.name, fieldInsn.desc);
+        }
+        if (insn.getOpcode() == Opcodes.INVOKESTATIC) {
+            final MethodInsnNode methodInsn = (MethodInsnNode)insn;
+            return methodInsn.desc.startsWith("()") ? getKey(methodInsn.owner, methodInsn.name, methodInsn.desc) : null;
+        }
+        return null;
+    }
+
+    static String getKey(String owner, String name, String descriptor) {
+        return owner + '.' + name + descriptor;
+    }
+
+    /**
+     * Checks that {@code value} can be the value of a constant with the given field or method descriptor, and returns
+     * it as it's represented on the operand stack.
+     */
+    static Object checkValue(String descriptor, Object value) {
+        final Type type;
+        if (descriptor.startsWith("(")) {
+            if (!descriptor.startsWith("()")) {
+                throw new IllegalArgumentException("Constant method " + descriptor + " must not have parameters");
+            }
+            type = Type.getReturnType(descriptor);
+        } else {
+            type = Type.getType(descriptor);
+        }
+        final boolean valid;
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                if (value instanceof Boolean) {
+                    return (Boolean)value ? 1 : 0;
+                }
+                valid = false;
+                break;
+            case Type.CHAR:
+                if (value instanceof Character) {
+                    return (int)(Character)value;
+                }
+                valid = false;
+                break;
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                if (value instanceof Byte || value instanceof Short) {
+                    return ((Number)value).intValue();
+                }
+                valid = value instanceof Integer;
+                break;
+            case Type.FLOAT:
+                valid = value instanceof Float;
+                break;
+            case Type.LONG:
+                valid = value instanceof Long;
+                break;
+            case Type.DOUBLE:
+                valid = value instanceof Double;
+                break;
+            case Type.OBJECT:
+                valid = type.getInternalName().equals("java/lang/String") && value instanceof String;
+                break;
+            default:
+                valid = false;
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid value " + value + " for constant of type " + type.getClassName());
+        }
+        return value;
+    }
+
+    private static AbstractInsnNode push(Object value) {
+        if (value instanceof Integer) {
+            final int intValue = (Integer)value;
+            if (intValue >= -1 && intValue <= 5) {
+                return new InsnNode(Opcodes.ICONST_0 + intValue);
+            }
+            if (intValue >= Byte.MIN_VALUE && intValue <= Byte.MAX_VALUE) {
+                return new IntInsnNode(Opcodes.BIPUSH, intValue);
+            }
+            if (intValue >= Short.MIN_VALUE && intValue <= Short.MAX_VALUE) {
+                return new IntInsnNode(Opcodes.SIPUSH, intValue);
+            }
+        }
+        return new LdcInsnNode(value);
+    }
+
+    private static final class Decision {
+        // null if the jump is never taken
+        final LabelNode target;
+        final List<AbstractInsnNode> operands;
+
+        Decision(LabelNode target, AbstractInsnNode... operands) {
+            this.target = target;
+            this.operands = Arrays.asList(operands);
+        }
+    }
+}
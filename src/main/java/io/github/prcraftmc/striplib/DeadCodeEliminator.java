@@ -0,0 +1,398 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Finds code that only stripped code referred to. A class or private member that stripped code referenced, directly
+ * or through other such code, is dead once it can no longer be reached through kept code. Anything else (entrypoints,
+ * reflection targets, serialization hooks, classes that only reference each other, ...) is never touched.
+ * <p>
+ * Instances are not thread-safe, except for {@link #add}.
+ */
+final class DeadCodeEliminator {
+    private final Map<String, List<ClassReferences>> classes = new HashMap<>();
+
+    synchronized void add(ClassReferences references) {
+        classes.computeIfAbsent(references.className, k -> new ArrayList<>(1)).add(references);
+    }
+
+    Set<String> getClassNames() {
+        return classes.keySet();
+    }
+
+    Result run(Predicate<String> keepClass) {
+        // Anything that stripped code referenced is a candidate for removal, as is anything that a candidate references
+        // in turn. Candidates are then kept if they can still be reached from something that isn't a candidate, without
+        // going through stripped code.
+        final Set<String> candidateClasses = new HashSet<>();
+        final Set<String> candidateMembers = new HashSet<>();
+        final Map<String, Unit> membersById = new HashMap<>();
+        for (final List<ClassReferences> entries : classes.values()) {
+            for (final ClassReferences references : entries) {
+                membersById.putAll(references.memberUnits);
+            }
+        }
+        final Deque<Unit> toScan = new ArrayDeque<>();
+        for (final List<ClassReferences> entries : classes.values()) {
+            for (final ClassReferences references : entries) {
+                for (final String itf : references.strippedInterfaces) {
+                    addCandidateClass(itf, candidateClasses, toScan);
+                }
+                for (final Unit unit : references.getUnits()) {
+                    if (unit.stripped || references.stripEntireClass) {
+                        toScan.add(unit);
+                    }
+                }
+            }
+        }
+        while (!toScan.isEmpty()) {
+            final Unit unit = toScan.remove();
+            for (final String target : unit.references) {
+                if (classes.containsKey(target) && !target.equals(unit.owner)) {
+                    addCandidateClass(target, candidateClasses, toScan);
+                } else if (!target.equals(unit.id)) {
+                    final Unit member = membersById.get(target);
+                    if (member != null && member.isPrivate && !member.stripped && candidateMembers.add(target)) {
+                        toScan.add(member);
+                    }
+                }
+            }
+        }
+        candidateClasses.removeIf(name -> name.equals("module-info") || name.endsWith("/package-info") || keepClass.test(name));
+
+        final Set<String> liveClasses = new HashSet<>();
+        final Set<String> reachedMembers = new HashSet<>();
+        final Deque<Unit> toVisit = new ArrayDeque<>();
+        for (final String className : classes.keySet()) {
+            if (!candidateClasses.contains(className)) {
+                markLive(className, liveClasses, reachedMembers, candidateMembers, toVisit);
+            }
+        }
+        while (!toVisit.isEmpty()) {
+            final Unit unit = toVisit.remove();
+            for (final String target : unit.references) {
+                if (candidateClasses.contains(target)) {
+                    markLive(target, liveClasses, reachedMembers, candidateMembers, toVisit);
+                } else if (candidateMembers.contains(target) && reachedMembers.add(target)) {
+                    final Unit member = membersById.get(target);
+                    if (liveClasses.contains(member.owner)) {
+                        toVisit.add(member);
+                    }
+                }
+            }
+        }
+
+        final Result result = new Result();
+        for (final String className : candidateClasses) {
+            if (!liveClasses.contains(className) && !isStrippedEntirely(className)) {
+                result.classes.add(className);
+            }
+        }
+        for (final String memberId : candidateMembers) {
+            final Unit member = membersById.get(memberId);
+            if (!reachedMembers.contains(memberId) && liveClasses.contains(member.owner)) {
+                (member.method ? result.getMethods(member.owner) : result.getFields(member.owner)).add(member.member);
+            }
+        }
+        return result;
+    }
+
+    private void addCandidateClass(String className, Set<String> candidateClasses, Deque<Unit> toScan) {
+        if (!classes.containsKey(className) || !candidateClasses.add(className)) return;
+        for (final ClassReferences references : classes.get(className)) {
+            toScan.addAll(references.getUnits());
+        }
+    }
+
+    private void markLive(
+        String className, Set<String> liveClasses, Set<String> reachedMembers, Set<String> candidateMembers, Deque<Unit> toVisit
+    ) {
+        if (isStrippedEntirely(className) || !liveClasses.add(className)) return;
+        for (final ClassReferences references : classes.get(className)) {
+            for (final Unit unit : references.getUnits()) {
+                if (unit.stripped) continue;
+                if (unit.member != null && candidateMembers.contains(unit.id) && !reachedMembers.contains(unit.id)) continue;
+                toVisit.add(unit);
+            }
+        }
+    }
+
+    private boolean isStrippedEntirely(String className) {
+        return classes.get(className).get(0).stripEntireClass;
+    }
+
+    static final class Result {
+        final Set<String> classes = new HashSet<>();
+        final Map<String, MemberSet> fields = new HashMap<>();
+        final Map<String, MemberSet> methods = new HashMap<>();
+
+        MemberSet getFields(String className) {
+            return fields.computeIfAbsent(className, k -> new MemberSet());
+        }
+
+        MemberSet getMethods(String className) {
+            return methods.computeIfAbsent(className, k -> new MemberSet());
+        }
+    }
+
+    private static final class Unit {
+        final String owner;
+        final String id;
+        final StripData.Member member;
+        final boolean method, isPrivate;
+        boolean stripped;
+        final Set<String> references = new HashSet<>();
+
+        Unit(String owner, StripData.Member member, boolean method, boolean isPrivate) {
+            this.owner = owner;
+            this.id = member != null ? memberId(owner, member.getName(), member.getDescriptor()) : owner;
+            this.member = member;
+            this.method = method;
+            this.isPrivate = isPrivate;
+        }
+    }
+
+    private static String memberId(String owner, String name, String descriptor) {
+        return owner + '.' + name + ' ' + descriptor;
+    }
+
+    /**
+     * Collects the references of a class. {@link #setStripData} must be called once it's been visited, before it's
+     * {@linkplain #add added}. It may be called again to {@linkplain #run run} the elimination for another environment.
+     */
+    static final class ClassReferences extends ClassVisitor {
+        private boolean stripEntireClass;
+        private String className;
+        private Unit classUnit;
+        private String[] interfaces;
+        private Set<String> classReferences;
+        private final Map<String, Unit> memberUnits = new LinkedHashMap<>();
+        private final List<String> strippedInterfaces = new ArrayList<>(0);
+
+        ClassReferences() {
+            super(Opcodes.ASM9);
+        }
+
+        void setStripData(StripData data) {
+            // Whether the interfaces are referenced depends on the environment, so they're added on top of the rest
+            if (classReferences == null) {
+                classReferences = new HashSet<>(classUnit.references);
+            } else {
+                classUnit.references.clear();
+                classUnit.references.addAll(classReferences);
+            }
+            strippedInterfaces.clear();
+            stripEntireClass = data.stripEntireClass();
+            if (interfaces != null) {
+                for (final String itf : interfaces) {
+                    if (data.getInterfaces().contains(itf)) {
+                        strippedInterfaces.add(itf);
+                    } else {
+                        addClass(classUnit, itf);
+                    }
+                }
+            }
+            for (final Unit unit : memberUnits.values()) {
+                unit.stripped = (unit.method ? data.getMethods() : data.getFields()).contains(unit.member);
+            }
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        List<Unit> getUnits() {
+            final List<Unit> result = new ArrayList<>(memberUnits.size() + 1);
+            result.add(classUnit);
+            result.addAll(memberUnits.values());
+            return result;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            className = name;
+            classUnit = new Unit(name, null, false, false);
+            addClass(classUnit, superName);
+            this.interfaces = interfaces;
+            addSignature(classUnit, signature);
+        }
+
+        @Override
+        public void visitNestHost(String nestHost) {
+            addClass(classUnit, nestHost);
+        }
+
+        @Override
+        public void visitOuterClass(String owner, String name, String descriptor) {
+            addClass(classUnit, owner);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            addType(classUnit, Type.getType(descriptor));
+            return null;
+        }
+
+        @Override
+        public void visitPermittedSubclass(String permittedSubclass) {
+            addClass(classUnit, permittedSubclass);
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+            addType(classUnit, Type.getType(descriptor));
+            addSignature(classUnit, signature);
+            return null;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            final Unit unit = addMember(access, name, descriptor, false);
+            addType(unit, Type.getType(descriptor));
+            addSignature(unit, signature);
+            return new FieldVisitor(api) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    addType(unit, Type.getType(descriptor));
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            final Unit unit = addMember(access, name, descriptor, true);
+            addType(unit, Type.getMethodType(descriptor));
+            addSignature(unit, signature);
+            if (exceptions != null) {
+                for (final String exception : exceptions) {
+                    addClass(unit, exception);
+                }
+            }
+            return new MethodVisitor(api) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    addType(unit, Type.getType(descriptor));
+                    return null;
+                }
+
+                @Override
+                public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                    addType(unit, Type.getType(descriptor));
+                    return null;
+                }
+
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    addType(unit, Type.getObjectType(type));
+                }
+
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                    addClass(unit, owner);
+                    addType(unit, Type.getType(descriptor));
+                    unit.references.add(memberId(owner, name, descriptor));
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    addType(unit, Type.getObjectType(owner));
+                    addType(unit, Type.getMethodType(descriptor));
+                    unit.references.add(memberId(owner, name, descriptor));
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                    addType(unit, Type.getMethodType(descriptor));
+                    addConstant(unit, bootstrapMethodHandle);
+                    for (final Object argument : bootstrapMethodArguments) {
+                        addConstant(unit, argument);
+                    }
+                }
+
+                @Override
+                public void visitLdcInsn(Object value) {
+                    addConstant(unit, value);
+                }
+
+                @Override
+                public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+                    addType(unit, Type.getType(descriptor));
+                }
+
+                @Override
+                public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                    if (type != null) {
+                        addClass(unit, type);
+                    }
+                }
+            };
+        }
+
+        private Unit addMember(int access, String name, String descriptor, boolean method) {
+            final StripData.Member member = new StripData.Member(name, descriptor);
+            final Unit unit = new Unit(className, member, method, (access & Opcodes.ACC_PRIVATE) != 0);
+            memberUnits.put(unit.id, unit);
+            return unit;
+        }
+
+        private static void addClass(Unit unit, String internalName) {
+            if (internalName != null) {
+                unit.references.add(internalName);
+            }
+        }
+
+        private static void addType(Unit unit, Type type) {
+            switch (type.getSort()) {
+                case Type.ARRAY:
+                    addType(unit, type.getElementType());
+                    break;
+                case Type.OBJECT:
+                    unit.references.add(type.getInternalName());
+                    break;
+                case Type.METHOD:
+                    for (final Type argument : type.getArgumentTypes()) {
+                        addType(unit, argument);
+                    }
+                    addType(unit, type.getReturnType());
+                    break;
+            }
+        }
+
+        private static void addConstant(Unit unit, Object value) {
+            if (value instanceof Type) {
+                addType(unit, (Type)value);
+            } else if (value instanceof Handle) {
+                final Handle handle = (Handle)value;
+                addClass(unit, handle.getOwner());
+                addType(unit, handle.getTag() <= Opcodes.H_PUTSTATIC ? Type.getType(handle.getDesc()) : Type.getMethodType(handle.getDesc()));
+                unit.references.add(memberId(handle.getOwner(), handle.getName(), handle.getDesc()));
+            } else if (value instanceof ConstantDynamic) {
+                final ConstantDynamic constant = (ConstantDynamic)value;
+                addType(unit, Type.getType(constant.getDescriptor()));
+                addConstant(unit, constant.getBootstrapMethod());
+                for (int i = 0; i < constant.getBootstrapMethodArgumentCount(); i++) {
+                    addConstant(unit, constant.getBootstrapMethodArgument(i));
+                }
+            } else if (value instanceof String) {
+                // Might be used to look the class up reflectively
+                unit.references.add(((String)value).replace('.', '/'));
+            }
+        }
+
+        private static void addSignature(Unit unit, String signature) {
+            if (signature == null) return;
+            new SignatureReader(signature).accept(new SignatureVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitClassType(String name) {
+                    unit.references.add(name);
+                }
+            });
+        }
+    }
+}
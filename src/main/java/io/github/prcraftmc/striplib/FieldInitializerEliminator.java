@@ -0,0 +1,269 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * Removes the stores to stripped fields in a constructor or static initializer, along with the expressions computing
+ * the stored values, where those expressions are provably free of side effects. Stores that can't be removed are left
+ * alone, to be turned into {@code POP}s by {@link StripData#visitor(org.objectweb.asm.ClassVisitor, int)}.
+ */
+final class FieldInitializerEliminator {
+    private static final Set<String> PURE_CONSTRUCTORS = new HashSet<>(Arrays.asList(
+        "java/lang/Object",
+        "java/lang/StringBuilder",
+        "java/util/ArrayList",
+        "java/util/LinkedList",
+        "java/util/ArrayDeque",
+        "java/util/HashMap",
+        "java/util/HashSet",
+        "java/util/LinkedHashMap",
+        "java/util/LinkedHashSet",
+        "java/util/TreeMap",
+        "java/util/TreeSet",
+        "java/util/IdentityHashMap",
+        "java/util/concurrent/ConcurrentHashMap",
+        "java/util/concurrent/CopyOnWriteArrayList",
+        "java/util/concurrent/atomic/AtomicBoolean",
+        "java/util/concurrent/atomic/AtomicInteger",
+        "java/util/concurrent/atomic/AtomicLong",
+        "java/util/concurrent/atomic/AtomicReference"
+    ));
+    private static final Set<String> PURE_STATIC_METHODS = new HashSet<>(Arrays.asList(
+        "java/lang/Boolean.valueOf(Z)Ljava/lang/Boolean;",
+        "java/lang/Byte.valueOf(B)Ljava/lang/Byte;",
+        "java/lang/Character.valueOf(C)Ljava/lang/Character;",
+        "java/lang/Short.valueOf(S)Ljava/lang/Short;",
+        "java/lang/Integer.valueOf(I)Ljava/lang/Integer;",
+        "java/lang/Long.valueOf(J)Ljava/lang/Long;",
+        "java/lang/Float.valueOf(F)Ljava/lang/Float;",
+        "java/lang/Double.valueOf(D)Ljava/lang/Double;",
+        "java/util/Collections.emptyList()Ljava/util/List;",
+        "java/util/Collections.emptySet()Ljava/util/Set;",
+        "java/util/Collections.emptyMap()Ljava/util/Map;"
+    ));
+
+    // Placeholders for the forward simulation
+    private static final Object UNKNOWN = new Object();
+    private static final Object THIS = new Object();
+
+    private final String className;
+    private final MemberSet fields;
+    private final MethodNode method;
+    private final Set<LabelNode> jumpTargets = new HashSet<>();
+
+    private FieldInitializerEliminator(String className, MemberSet fields, MethodNode method) {
+        this.className = className;
+        this.fields = fields;
+        this.method = method;
+    }
+
+    static void eliminate(String className, MemberSet fields, MethodNode method) {
+        new FieldInitializerEliminator(className, fields, method).eliminate();
+    }
+
+    private void eliminate() {
+        collectJumpTargets();
+        final List<AbstractInsnNode> toRemove = new ArrayList<>();
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (insn.getOpcode() != Opcodes.PUTFIELD && insn.getOpcode() != Opcodes.PUTSTATIC) continue;
+            final FieldInsnNode fieldInsn = (FieldInsnNode)insn;
+            if (!fieldInsn.owner.equals(className) || !fields.contains(fieldInsn.name, fieldInsn.desc)) continue;
+            final AbstractInsnNode start = findStart(fieldInsn);
+            if (start != null && isPure(start, fieldInsn)) {
+                for (AbstractInsnNode remove = start; remove != fieldInsn; remove = remove.getNext()) {
+                    if (remove.getOpcode() >= 0) {
+                        toRemove.add(remove);
+                    }
+                }
+                toRemove.add(fieldInsn);
+            }
+        }
+        // Line numbers and labels are kept, since they may be referenced from debug info
+        toRemove.forEach(method.instructions::remove);
+    }
+
+    private void collectJumpTargets() {
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof JumpInsnNode) {
+                jumpTargets.add(((JumpInsnNode)insn).label);
+            } else if (insn instanceof TableSwitchInsnNode) {
+                jumpTargets.add(((TableSwitchInsnNode)insn).dflt);
+                jumpTargets.addAll(((TableSwitchInsnNode)insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                jumpTargets.add(((LookupSwitchInsnNode)insn).dflt);
+                jumpTargets.addAll(((LookupSwitchInsnNode)insn).labels);
+            }
+        }
+        for (final TryCatchBlockNode tryCatch : method.tryCatchBlocks) {
+            jumpTargets.add(tryCatch.start);
+            jumpTargets.add(tryCatch.end);
+            jumpTargets.add(tryCatch.handler);
+        }
+    }
+
+    private AbstractInsnNode findStart(FieldInsnNode store) {
+        // Walk backwards through straight-line code until everything the store consumes has been produced
+        int needed = store.getOpcode() == Opcodes.PUTFIELD ? 2 : 1;
+        for (AbstractInsnNode insn = store.getPrevious(); insn != null; insn = insn.getPrevious()) {
+            if (insn instanceof FrameNode || jumpTargets.contains(insn)) {
+                return null;
+            }
+            if (insn.getOpcode() < 0) continue;
+            final int[] effect = stackEffect(insn);
+            if (effect == null || effect[1] > needed) {
+                return null;
+            }
+            needed += effect[0] - effect[1];
+            if (needed == 0) {
+                return insn;
+            }
+        }
+        return null;
+    }
+
+    private boolean isPure(AbstractInsnNode start, FieldInsnNode store) {
+        // Replay the range, tracking constants and freshly allocated arrays, so that array stores can be shown not to
+        // throw or to write anywhere visible
+        final Deque<Object> stack = new ArrayDeque<>();
+        for (AbstractInsnNode insn = start; insn != store; insn = insn.getNext()) {
+            final int opcode = insn.getOpcode();
+            if (opcode < 0) continue;
+            if (opcode >= Opcodes.IASTORE && opcode <= Opcodes.SASTORE) {
+                stack.pop();
+                final Object index = stack.pop();
+                final Object array = stack.pop();
+                if (!(array instanceof FreshArray) || !(index instanceof Integer)) {
+                    return false;
+                }
+                final int i = (Integer)index;
+                if (i < 0 || i >= ((FreshArray)array).length) {
+                    return false;
+                }
+                continue;
+            }
+            switch (opcode) {
+                case Opcodes.NEWARRAY:
+                case Opcodes.ANEWARRAY: {
+                    final Object length = stack.pop();
+                    if (!(length instanceof Integer) || (Integer)length < 0) {
+                        return false;
+                    }
+                    stack.push(new FreshArray((Integer)length));
+                    continue;
+                }
+                case Opcodes.DUP:
+                    stack.push(stack.peek());
+                    continue;
+                case Opcodes.SWAP: {
+                    final Object first = stack.pop();
+                    final Object second = stack.pop();
+                    stack.push(first);
+                    stack.push(second);
+                    continue;
+                }
+                case Opcodes.ALOAD:
+                    stack.push(((VarInsnNode)insn).var == 0 && (method.access & Opcodes.ACC_STATIC) == 0 ? THIS : UNKNOWN);
+                    continue;
+            }
+            final Integer constant = getIntConstant(insn);
+            if (constant != null) {
+                stack.push(constant);
+                continue;
+            }
+            final int[] effect = stackEffect(insn);
+            for (int i = 0; i < effect[0]; i++) {
+                stack.pop();
+            }
+            for (int i = 0; i < effect[1]; i++) {
+                stack.push(UNKNOWN);
+            }
+        }
+        // A null target would have thrown, so only stores to "this" are removed
+        return store.getOpcode() == Opcodes.PUTSTATIC || stack.size() == 2 && stack.peekLast() == THIS;
+    }
+
+    private int[] stackEffect(AbstractInsnNode insn) {
+        // Values consumed and produced (not slots), for instructions that can't throw or have visible side effects.
+        // null means the instruction isn't known to be pure.
+        final int opcode = insn.getOpcode();
+        if (opcode >= Opcodes.ACONST_NULL && opcode <= Opcodes.SIPUSH || opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) {
+            return new int[] {0, 1};
+        }
+        if (opcode >= Opcodes.IASTORE && opcode <= Opcodes.SASTORE) {
+            return new int[] {3, 0};
+        }
+        if (
+            opcode >= Opcodes.IADD && opcode <= Opcodes.DMUL ||
+                opcode == Opcodes.FDIV || opcode == Opcodes.DDIV || opcode == Opcodes.FREM || opcode == Opcodes.DREM ||
+                opcode >= Opcodes.ISHL && opcode <= Opcodes.LXOR ||
+                opcode >= Opcodes.LCMP && opcode <= Opcodes.DCMPG
+        ) {
+            return new int[] {2, 1};
+        }
+        if (opcode >= Opcodes.INEG && opcode <= Opcodes.DNEG || opcode >= Opcodes.I2L && opcode <= Opcodes.I2S) {
+            return new int[] {1, 1};
+        }
+        switch (opcode) {
+            case Opcodes.LDC: {
+                final Object value = ((LdcInsnNode)insn).cst;
+                return value instanceof Handle || value instanceof ConstantDynamic ? null : new int[] {0, 1};
+            }
+            case Opcodes.NEWARRAY:
+            case Opcodes.ANEWARRAY:
+            case Opcodes.INSTANCEOF:
+                return new int[] {1, 1};
+            case Opcodes.DUP:
+                return new int[] {1, 2};
+            case Opcodes.SWAP:
+                return new int[] {2, 2};
+            case Opcodes.POP:
+                return new int[] {1, 0};
+            case Opcodes.NEW:
+                return PURE_CONSTRUCTORS.contains(((TypeInsnNode)insn).desc) ? new int[] {0, 1} : null;
+            case Opcodes.GETSTATIC:
+                // Reading our own statics can't trigger class initialization
+                return ((FieldInsnNode)insn).owner.equals(className) ? new int[] {0, 1} : null;
+            case Opcodes.INVOKESPECIAL: {
+                final MethodInsnNode methodInsn = (MethodInsnNode)insn;
+                return methodInsn.name.equals("<init>") && methodInsn.desc.equals("()V") &&
+                    PURE_CONSTRUCTORS.contains(methodInsn.owner) ? new int[] {1, 0} : null;
+            }
+            case Opcodes.INVOKESTATIC: {
+                final MethodInsnNode methodInsn = (MethodInsnNode)insn;
+                if (!PURE_STATIC_METHODS.contains(methodInsn.owner + '.' + methodInsn.name + methodInsn.desc)) {
+                    return null;
+                }
+                return new int[] {methodInsn.desc.charAt(1) == ')' ? 0 : 1, 1};
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static Integer getIntConstant(AbstractInsnNode insn) {
+        final int opcode = insn.getOpcode();
+        if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) {
+            return opcode - Opcodes.ICONST_0;
+        }
+        if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+            return ((IntInsnNode)insn).operand;
+        }
+        if (opcode == Opcodes.LDC && ((LdcInsnNode)insn).cst instanceof Integer) {
+            return (Integer)((LdcInsnNode)insn).cst;
+        }
+        return null;
+    }
+
+    private static final class FreshArray {
+        final int length;
+
+        FreshArray(int length) {
+            this.length = length;
+        }
+    }
+}
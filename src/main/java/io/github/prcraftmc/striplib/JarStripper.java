@@ -0,0 +1,638 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class JarStripper {
+    /**
+     * The entry in each delta jar written by {@link #stripSplit} that lists the entries removed in its environment, one
+     * per line.
+     */
+    public static final String REMOVED_ENTRIES = "META-INF/strip-lib/removed.txt";
+    private static final long MAX_SCANNED_RESOURCE_SIZE = 4 * 1024 * 1024;
+
+    private final ClassStripper.Builder stripperBuilder;
+    private final String environment;
+    private final ForkJoinPool pool;
+    private final int parsingOptions;
+    private final StripDataCache cache;
+    private final Path indexFile;
+    private final boolean eliminateDeadCode;
+    private final boolean stripEnclosedClasses;
+    private final Predicate<String> keepClasses;
+
+    private JarStripper(
+        ClassStripper.Builder stripperBuilder,
+        String environment,
+        ForkJoinPool pool,
+        int parsingOptions,
+        StripDataCache cache,
+        Path indexFile,
+        boolean eliminateDeadCode,
+        boolean stripEnclosedClasses,
+        Predicate<String> keepClasses
+    ) {
+        this.stripperBuilder = stripperBuilder;
+        this.environment = environment;
+        this.pool = pool;
+        this.parsingOptions = parsingOptions;
+        this.cache = cache;
+        this.indexFile = indexFile;
+        this.eliminateDeadCode = eliminateDeadCode;
+        this.stripEnclosedClasses = stripEnclosedClasses;
+        this.keepClasses = keepClasses;
+    }
+
+    public void strip(Path input, Path output) throws IOException {
+        if (environment == null) {
+            throw new IllegalStateException("JarStripper was built without an environment. Use stripSplit() instead.");
+        }
+        final CompiledStripConfig config = stripperBuilder.compile(environment);
+        final int maxInFlight = pool.getParallelism() * 4;
+        try (
+            ZipFile inputZip = new ZipFile(input.toFile());
+            ZipOutputStream outputZip = new ZipOutputStream(Files.newOutputStream(output))
+        ) {
+            final StripIndex index = indexFile != null ? loadIndex(inputZip) : null;
+            final Map<String, StripData> jarData;
+            try {
+                jarData = eliminateDeadCode || stripEnclosedClasses
+                    ? analyzeJar(Collections.singleton(environment), inputZip, (entry, data, reader, collector, collectOptions) -> {
+                        if (index != null && !index.mayNeedStripping(entry.getName())) {
+                            return Collections.singletonMap(environment, skipped(config, entry));
+                        }
+                        final Supplier<StripData> analyze = () -> config.newStripper(collector).calcStripData(
+                            reader,
+                            collectOptions & getAnalysisOptions(config, reader, entry, index)
+                        );
+                        return Collections.singletonMap(
+                            environment, cache != null ? cache.calcStripData(config, data, reader, analyze) : analyze.get()
+                        );
+                    }).get(environment)
+                    : null;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            // Entries are stripped in parallel, but always written back in their original order
+            final Deque<ForkJoinTask<StrippedEntry>> inFlight = new ArrayDeque<>();
+            final Enumeration<? extends ZipEntry> entries = inputZip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                inFlight.add(pool.submit(() -> stripEntry(config, inputZip, entry, jarData, index)));
+                if (inFlight.size() >= maxInFlight) {
+                    write(outputZip, inFlight.remove());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write(outputZip, inFlight.remove());
+            }
+        }
+    }
+
+    /**
+     * Strips {@code input} for every environment in {@code deltas} at once, without duplicating what they have in
+     * common. Entries that come out the same in every environment are written once to {@code common}. The delta jar of
+     * each environment gets the rest of its entries, and {@link #REMOVED_ENTRIES}. The full output for an environment
+     * is its delta jar and the common jar together.
+     */
+    public void stripSplit(Path input, Path common, Map<String, Path> deltas) throws IOException {
+        if (deltas.isEmpty()) {
+            throw new IllegalArgumentException("No environments to strip for");
+        }
+        // Each class is analyzed once for all environments, and written for each of them from that
+        final MultiEnvironmentConfig config = stripperBuilder.compileAll();
+        final Set<String> environments = deltas.keySet();
+        environments.forEach(config::getConfig);
+        final int maxInFlight = pool.getParallelism() * 4;
+        final Map<String, ZipOutputStream> deltaZips = new LinkedHashMap<>();
+        Throwable failure = null;
+        try (
+            ZipFile inputZip = new ZipFile(input.toFile());
+            ZipOutputStream commonZip = new ZipOutputStream(Files.newOutputStream(common))
+        ) {
+            for (final Map.Entry<String, Path> delta : deltas.entrySet()) {
+                deltaZips.put(delta.getKey(), new ZipOutputStream(Files.newOutputStream(delta.getValue())));
+            }
+            final StripIndex index = indexFile != null ? loadIndex(inputZip) : null;
+            final Map<String, Map<String, StripData>> jarData;
+            try {
+                jarData = eliminateDeadCode || stripEnclosedClasses
+                    ? analyzeJar(environments, inputZip, (entry, data, reader, collector, collectOptions) -> {
+                        if (index != null && !index.mayNeedStripping(entry.getName())) {
+                            final Map<String, StripData> result = new HashMap<>();
+                            environments.forEach(environment -> result.put(environment, skipped(config.getConfig(environment), entry)));
+                            return result;
+                        }
+                        return calcStripData(
+                            config, environments, data, reader, () -> config.calcStripData(reader, collector, collectOptions)
+                        );
+                    })
+                    : null;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            final Map<String, StringBuilder> removed = new HashMap<>();
+            final Deque<ForkJoinTask<Map<String, byte[]>>> inFlight = new ArrayDeque<>();
+            final Deque<ZipEntry> inFlightEntries = new ArrayDeque<>();
+            final Enumeration<? extends ZipEntry> entries = inputZip.entries();
+            while (entries.hasMoreElements() || !inFlight.isEmpty()) {
+                if (entries.hasMoreElements() && inFlight.size() < maxInFlight) {
+                    final ZipEntry entry = entries.nextElement();
+                    inFlightEntries.add(entry);
+                    inFlight.add(pool.submit(() -> splitEntry(config, environments, inputZip, entry, jarData, index)));
+                    continue;
+                }
+                final ZipEntry entry = inFlightEntries.remove();
+                final Map<String, byte[]> results;
+                try {
+                    results = inFlight.remove().join();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                if (results.size() == 1 && results.containsKey(null)) {
+                    writeEntry(commonZip, entry, results.get(null));
+                    continue;
+                }
+                for (final Map.Entry<String, byte[]> result : results.entrySet()) {
+                    if (result.getValue() != null) {
+                        writeEntry(deltaZips.get(result.getKey()), entry, result.getValue());
+                    } else {
+                        removed.computeIfAbsent(result.getKey(), k -> new StringBuilder()).append(entry.getName()).append('\n');
+                    }
+                }
+            }
+            for (final Map.Entry<String, ZipOutputStream> deltaZip : deltaZips.entrySet()) {
+                final StringBuilder removedEntries = removed.get(deltaZip.getKey());
+                deltaZip.getValue().putNextEntry(new ZipEntry(REMOVED_ENTRIES));
+                if (removedEntries != null) {
+                    deltaZip.getValue().write(removedEntries.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                deltaZip.getValue().closeEntry();
+            }
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            // Failing to close a delta jar mustn't hide why it's being closed early
+            IOException closeFailure = null;
+            for (final ZipOutputStream deltaZip : deltaZips.values()) {
+                try {
+                    deltaZip.close();
+                } catch (IOException e) {
+                    if (failure != null) {
+                        failure.addSuppressed(e);
+                    } else if (closeFailure == null) {
+                        closeFailure = e;
+                    } else {
+                        closeFailure.addSuppressed(e);
+                    }
+                }
+            }
+            if (closeFailure != null) {
+                throw closeFailure;
+            }
+        }
+    }
+
+    private Map<String, byte[]> splitEntry(
+        MultiEnvironmentConfig config,
+        Set<String> environments,
+        ZipFile zip,
+        ZipEntry entry,
+        Map<String, Map<String, StripData>> jarData,
+        StripIndex index
+    ) {
+        // Returns the output for each environment, or for the null environment if it's common to all of them
+        if (entry.isDirectory()) {
+            return Collections.singletonMap(null, null);
+        }
+        final byte[] data = readEntry(zip, entry);
+        if (!isClass(entry)) {
+            return Collections.singletonMap(null, data);
+        }
+        final boolean indexed = index != null && !index.mayNeedStripping(entry.getName());
+        if (indexed && jarData == null) {
+            environments.forEach(environment -> skipped(config.getConfig(environment), entry));
+            return Collections.singletonMap(null, data);
+        }
+        final ClassReader reader = new ClassReader(data);
+        final Map<String, StripData> stripData;
+        if (jarData != null) {
+            // Missing for the environments the class is removed in
+            stripData = new HashMap<>();
+            for (final String environment : environments) {
+                stripData.put(environment, jarData.get(environment).get(entry.getName()));
+            }
+        } else {
+            stripData = calcStripData(config, environments, data, reader, () -> config.calcStripData(reader, parsingOptions));
+        }
+        final Map<String, byte[]> results = new LinkedHashMap<>();
+        byte[] first = null;
+        boolean same = true;
+        for (final String environment : environments) {
+            final StripData environmentData = stripData.get(environment);
+            final byte[] result;
+            if (environmentData == null) {
+                result = null;
+            } else if (indexed && environmentData.isEmpty()) {
+                result = data;
+            } else {
+                result = config.getConfig(environment).write(environmentData, data, reader, parsingOptions);
+            }
+            if (results.isEmpty()) {
+                first = result;
+            } else if (same) {
+                same = result != null && (result == first || Arrays.equals(result, first));
+            }
+            results.put(environment, result);
+        }
+        return same && first != null ? Collections.singletonMap(null, first) : results;
+    }
+
+    private Map<String, StripData> calcStripData(
+        MultiEnvironmentConfig config,
+        Set<String> environments,
+        byte[] data,
+        ClassReader reader,
+        Supplier<Map<String, StripData>> analyzeAll
+    ) {
+        // The shared analysis only runs if the cache misses for some environment, and then only once
+        final List<Map<String, StripData>> analyzed = new ArrayList<>(1);
+        final Map<String, StripData> result = new HashMap<>();
+        for (final String environment : environments) {
+            final Supplier<StripData> analyze = () -> {
+                if (analyzed.isEmpty()) {
+                    analyzed.add(analyzeAll.get());
+                }
+                return analyzed.get(0).get(environment);
+            };
+            result.put(
+                environment,
+                cache != null ? cache.calcStripData(config.getConfig(environment), data, reader, analyze) : analyze.get()
+            );
+        }
+        return result;
+    }
+
+    private StripIndex loadIndex(ZipFile zip) throws IOException {
+        final Set<String> annotations = stripperBuilder.getPrescanNames();
+        if (Files.exists(indexFile)) {
+            try {
+                final StripIndex index = StripIndex.read(indexFile);
+                if (index.isValidFor(zip, annotations)) {
+                    return index;
+                }
+            } catch (IOException e) {
+                // Unreadable, so it's rebuilt below
+            }
+        }
+        final StripIndex index = StripIndex.build(zip, annotations);
+        index.write(indexFile);
+        return index;
+    }
+
+    private StrippedEntry stripEntry(
+        CompiledStripConfig config,
+        ZipFile zip,
+        ZipEntry entry,
+        Map<String, StripData> jarData,
+        StripIndex index
+    ) {
+        if (entry.isDirectory()) {
+            return new StrippedEntry(entry, null);
+        }
+        final byte[] data = readEntry(zip, entry);
+        if (!isClass(entry)) {
+            return new StrippedEntry(entry, data);
+        }
+        final byte[] stripped = stripClass(config, entry, data, jarData, index);
+        return stripped != null ? new StrippedEntry(entry, stripped) : null;
+    }
+
+    private byte[] stripClass(
+        CompiledStripConfig config,
+        ZipEntry entry,
+        byte[] data,
+        Map<String, StripData> jarData,
+        StripIndex index
+    ) {
+        final StripData stripData = jarData != null ? jarData.get(entry.getName()) : null;
+        if (jarData != null && stripData == null) {
+            return null;
+        }
+        if (index != null && !index.mayNeedStripping(entry.getName()) && (stripData == null || stripData.isEmpty())) {
+            if (stripData == null) {
+                // Otherwise it was already reported when the jar was analyzed
+                skipped(config, entry);
+            }
+            return data;
+        }
+        if (stripData != null) {
+            return config.write(stripData, data, new ClassReader(data), parsingOptions);
+        }
+        if (index == null) {
+            return cache != null ? cache.strip(config, data, parsingOptions) : config.strip(data, parsingOptions);
+        }
+        // The index already knows whether the class creates lambdas, so the analysis doesn't need to look
+        final ClassReader reader = new ClassReader(data);
+        final boolean referencesLambdas = index.referencesLambdaMetafactory(entry.getName());
+        final Supplier<StripData> analyze = () -> config.calcStripData(reader, parsingOptions, referencesLambdas);
+        return config.write(
+            cache != null ? cache.calcStripData(config, data, reader, analyze) : analyze.get(),
+            data,
+            reader,
+            parsingOptions
+        );
+    }
+
+    /**
+     * Analyzes every class in the jar up front, for the features that need to see all of it before anything is written.
+     * The jar is read once, however many environments there are. Returns the data of each entry for each environment,
+     * without the entries of the classes removed in it.
+     */
+    private Map<String, Map<String, StripData>> analyzeJar(Set<String> environments, ZipFile zip, ClassAnalyzer analyzer) {
+        final DeadCodeEliminator eliminator = eliminateDeadCode ? new DeadCodeEliminator() : null;
+        final NestedClasses nestedClasses = new NestedClasses();
+        final Map<String, Map<String, StripData>> entryData = new ConcurrentHashMap<>();
+        final Map<String, String> entryClasses = new ConcurrentHashMap<>();
+        final Map<String, DeadCodeEliminator.ClassReferences> entryReferences = new ConcurrentHashMap<>();
+        final List<ZipEntry> resources = new ArrayList<>();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        final Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) continue;
+            if (!isClass(entry)) {
+                resources.add(entry);
+                continue;
+            }
+            tasks.add(pool.submit(() -> {
+                final byte[] data = readEntry(zip, entry);
+                final ClassReader reader = new ClassReader(data);
+                final DeadCodeEliminator.ClassReferences references = eliminator != null
+                    ? new DeadCodeEliminator.ClassReferences()
+                    : null;
+                final NestedClasses.Collector collector = new NestedClasses.Collector(references);
+                // The references need the code, whereas nesting is all in attributes
+                final int collectOptions = references != null
+                    ? ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES
+                    : ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+                // The analysis feeds the collector as it goes, reading the code if either of them needs it
+                final Map<String, StripData> stripData = analyzer.analyze(entry, data, reader, collector, collectOptions);
+                if (collector.getClassName() == null) {
+                    // Not analyzed, so the nesting and references still need reading
+                    reader.accept(collector, collectOptions);
+                }
+                if (eliminator != null) {
+                    eliminator.add(references);
+                    entryReferences.put(entry.getName(), references);
+                }
+                nestedClasses.add(collector);
+                entryData.put(entry.getName(), stripData);
+                entryClasses.put(entry.getName(), collector.getClassName());
+            }));
+        }
+        tasks.forEach(ForkJoinTask::join);
+
+        final Map<String, Map<String, StripData>> result = new HashMap<>();
+        for (final String environment : environments) {
+            final Map<String, StripData> environmentData = new HashMap<>();
+            entryData.forEach((name, data) -> environmentData.put(name, data.get(environment)));
+
+            final Set<String> removedClasses = new HashSet<>();
+            environmentData.forEach((name, data) -> {
+                if (data.stripEntireClass()) {
+                    removedClasses.add(entryClasses.get(name));
+                }
+            });
+
+            if (eliminator != null) {
+                entryReferences.forEach((name, references) -> references.setStripData(environmentData.get(name)));
+                final DeadCodeEliminator.Result eliminated = eliminateDeadCode(eliminator, zip, resources);
+                removedClasses.addAll(eliminated.classes);
+                environmentData.replaceAll((name, data) -> data.withRemoved(
+                    eliminated.fields.get(entryClasses.get(name)),
+                    eliminated.methods.get(entryClasses.get(name)),
+                    Collections.emptySet()
+                ));
+            }
+
+            if (stripEnclosedClasses) {
+                // Local and anonymous classes declared in removed code go too
+                final Map<String, StripData> classData = new HashMap<>();
+                environmentData.forEach((name, data) -> classData.putIfAbsent(entryClasses.get(name), data));
+                removedClasses.addAll(nestedClasses.findOrphans(classData, removedClasses));
+            }
+
+            final Map<String, StripData> jarData = new HashMap<>();
+            for (final Map.Entry<String, StripData> entry : environmentData.entrySet()) {
+                final String className = entryClasses.get(entry.getKey());
+                if (removedClasses.contains(className)) continue;
+                jarData.put(entry.getKey(), entry.getValue().withRemoved(
+                    null, null, nestedClasses.getRemovedNestedClasses(className, removedClasses)
+                ));
+            }
+            result.put(environment, jarData);
+        }
+        return result;
+    }
+
+    /**
+     * Reports a class the index ruled out as analyzed without any passes, like one the prescan ruled out, and returns
+     * its data.
+     */
+    private static StripData skipped(CompiledStripConfig config, ZipEntry entry) {
+        final String name = entry.getName();
+        config.listener.classAnalyzed(
+            name.substring(0, name.length() - ".class".length()), config.getEnvironment(), config.emptyData, 0, 0
+        );
+        return config.emptyData;
+    }
+
+    private static int getAnalysisOptions(CompiledStripConfig config, ClassReader reader, ZipEntry entry, StripIndex index) {
+        final boolean needsCode = config.mayReferenceConstants(reader) || config.hierarchy != null;
+        return index != null
+            ? CompiledStripConfig.getAnalysisOptions(needsCode, index.referencesLambdaMetafactory(entry.getName()))
+            : CompiledStripConfig.getAnalysisOptions(reader, needsCode);
+    }
+
+    private DeadCodeEliminator.Result eliminateDeadCode(DeadCodeEliminator eliminator, ZipFile zip, List<ZipEntry> resources) {
+        // Classes named in resources (service files, manifests, mod metadata, ...) may be loaded from there
+        final Set<String> keep = new HashSet<>();
+        DeadCodeEliminator.Result result = eliminator.run(keepClasses);
+        while (!result.classes.isEmpty() && keep.addAll(findNamedInResources(zip, resources, result.classes))) {
+            result = eliminator.run(keepClasses.or(keep::contains));
+        }
+        return result;
+    }
+
+    private static Set<String> findNamedInResources(ZipFile zip, List<ZipEntry> resources, Set<String> classNames) {
+        final Set<String> result = new HashSet<>();
+        for (final ZipEntry entry : resources) {
+            if (entry.getSize() > MAX_SCANNED_RESOURCE_SIZE) continue;
+            final String text = new String(readEntry(zip, entry), StandardCharsets.ISO_8859_1);
+            for (final String className : classNames) {
+                if (text.contains(className) || text.contains(className.replace('/', '.'))) {
+                    result.add(className);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean isClass(ZipEntry entry) {
+        return entry.getName().endsWith(".class");
+    }
+
+    private static byte[] readEntry(ZipFile zip, ZipEntry entry) {
+        try (InputStream is = zip.getInputStream(entry)) {
+            return ClassBuffers.readFully(is, entry.getSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(ZipOutputStream output, ForkJoinTask<StrippedEntry> task) throws IOException {
+        final StrippedEntry result;
+        try {
+            result = task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (result != null) {
+            writeEntry(output, result.source, result.data);
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream output, ZipEntry source, byte[] data) throws IOException {
+        final ZipEntry entry = new ZipEntry(source.getName());
+        entry.setTime(source.getTime());
+        output.putNextEntry(entry);
+        if (data != null) {
+            output.write(data);
+        }
+        output.closeEntry();
+    }
+
+    public static Builder builder(ClassStripper.Builder stripperBuilder) {
+        return new Builder(stripperBuilder);
+    }
+
+    @FunctionalInterface
+    private interface ClassAnalyzer {
+        /**
+         * Analyzes a class for every environment, feeding {@code collector} with at least {@code collectOptions} if the
+         * class is read.
+         */
+        Map<String, StripData> analyze(
+            ZipEntry entry, byte[] data, ClassReader reader, ClassVisitor collector, int collectOptions
+        );
+    }
+
+    private static final class StrippedEntry {
+        final ZipEntry source;
+        final byte[] data;
+
+        StrippedEntry(ZipEntry source, byte[] data) {
+            this.source = source;
+            this.data = data;
+        }
+    }
+
+    public static class Builder {
+        private final ClassStripper.Builder stripperBuilder;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private int parsingOptions = 0;
+        private StripDataCache cache;
+        private Path indexFile;
+        private boolean eliminateDeadCode;
+        private boolean stripEnclosedClasses;
+        private Predicate<String> keepClasses = name -> false;
+
+        private Builder(ClassStripper.Builder stripperBuilder) {
+            this.stripperBuilder = Objects.requireNonNull(stripperBuilder, "stripperBuilder");
+        }
+
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = Objects.requireNonNull(pool, "pool");
+            return this;
+        }
+
+        public Builder parsingOptions(int parsingOptions) {
+            this.parsingOptions = parsingOptions;
+            return this;
+        }
+
+        public Builder cache(StripDataCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public Builder index(Path indexFile) {
+            this.indexFile = indexFile;
+            return this;
+        }
+
+        public Builder eliminateDeadCode(boolean eliminateDeadCode) {
+            this.eliminateDeadCode = eliminateDeadCode;
+            return this;
+        }
+
+        /**
+         * Also removes the local and anonymous classes declared in stripped code. This needs the whole jar analyzed
+         * before anything is written, so it's off by default.
+         */
+        public Builder stripEnclosedClasses(boolean stripEnclosedClasses) {
+            this.stripEnclosedClasses = stripEnclosedClasses;
+            return this;
+        }
+
+        public Builder keepClasses(Predicate<String> keepClasses) {
+            this.keepClasses = Objects.requireNonNull(keepClasses, "keepClasses");
+            return this;
+        }
+
+        /**
+         * Builds a stripper for use with {@link JarStripper#stripSplit}, which takes its environments as arguments.
+         */
+        public JarStripper build() {
+            return create(null);
+        }
+
+        public JarStripper build(String environment) {
+            return create(Objects.requireNonNull(environment, "environment"));
+        }
+
+        private JarStripper create(String environment) {
+            return new JarStripper(
+                stripperBuilder,
+                environment,
+                pool,
+                parsingOptions,
+                cache,
+                indexFile,
+                eliminateDeadCode,
+                stripEnclosedClasses,
+                keepClasses
+            );
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.prcraftmc.striplib;
+
+import java.util.*;
+
+final class MemberSet {
+    // Keyed by name, then descriptor, so that lookups don't need to allocate a key
+    private final Map<String, Set<String>> members = new HashMap<>();
+    private int size;
+
+    boolean add(String name, String descriptor) {
+        if (members.computeIfAbsent(name, k -> new HashSet<>(2)).add(descriptor)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    boolean add(StripData.Member member) {
+        return add(member.getName(), member.getDescriptor());
+    }
+
+    boolean contains(String name, String descriptor) {
+        final Set<String> descriptors = members.get(name);
+        return descriptors != null && descriptors.contains(descriptor);
+    }
+
+    boolean contains(StripData.Member member) {
+        return contains(member.getName(), member.getDescriptor());
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    MemberSet union(MemberSet other) {
+        if (other == null || other.isEmpty()) {
+            return this;
+        }
+        final MemberSet result = new MemberSet();
+        for (final MemberSet set : new MemberSet[] {this, other}) {
+            set.members.forEach((name, descriptors) -> descriptors.forEach(descriptor -> result.add(name, descriptor)));
+        }
+        return result;
+    }
+
+    Set<StripData.Member> toMembers() {
+        final Set<StripData.Member> result = new HashSet<>(size * 2);
+        for (final Map.Entry<String, Set<String>> entry : members.entrySet()) {
+            for (final String descriptor : entry.getValue()) {
+                result.add(new StripData.Member(entry.getKey(), descriptor));
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.util.*;
+
+/**
+ * {@link CompiledStripConfig}s for every environment registered on a {@link ClassStripper.Builder}, which share a
+ * single parse and analysis of each class between them.
+ * <p>
+ * Instances are immutable and may be shared freely between threads.
+ */
+public final class MultiEnvironmentConfig {
+    private final Map<String, CompiledStripConfig> configs;
+    private final Map<String, AnnotationMatcher> matchers;
+    private final byte[][] annotationDescriptors;
+    private final Set<String> constantKeys;
+    private final byte[][] constantOwners;
+    private final StripListener listener;
+    private final ClassHierarchy hierarchy;
+
+    MultiEnvironmentConfig(
+        Map<String, CompiledStripConfig> configs,
+        List<AnnotationData> annotations,
+        StripListener listener,
+        ClassHierarchy hierarchy
+    ) {
+        this.configs = Collections.unmodifiableMap(configs);
+        this.listener = listener;
+        this.hierarchy = hierarchy;
+        this.matchers = AnnotationMatcher.compile(annotations);
+        this.annotationDescriptors = CompiledStripConfig.encodeDescriptors(matchers.keySet());
+        this.constantKeys = new HashSet<>();
+        configs.values().forEach(config -> constantKeys.addAll(config.constants.keySet()));
+        this.constantOwners = CompiledStripConfig.encodeDescriptors(CompiledStripConfig.getOwners(constantKeys));
+    }
+
+    public Set<String> getEnvironments() {
+        return configs.keySet();
+    }
+
+    public CompiledStripConfig getConfig(String environment) {
+        final CompiledStripConfig config = configs.get(environment);
+        if (config == null) {
+            throw new IllegalArgumentException("Unknown environment " + environment);
+        }
+        return config;
+    }
+
+    /**
+     * Analyzes the class for every environment. The class is read with only the options the analysis needs, so
+     * {@code parsingOptions} is ignored.
+     */
+    public Map<String, StripData> calcStripData(ClassReader reader, int parsingOptions) {
+        return calcStripData(reader, null, 0);
+    }
+
+    /**
+     * Analyzes the class for every environment, feeding it through {@code delegate} as it's read. The delegate is only
+     * fed if the class needs analyzing at all, and gets what both {@code delegateOptions} and the analysis ask for.
+     */
+    Map<String, StripData> calcStripData(ClassReader reader, ClassVisitor delegate, int delegateOptions) {
+        final boolean listening = listener != StripListener.NOOP;
+        long start = listening ? System.nanoTime() : 0;
+        final ClassAnalysis analysis = new ClassAnalysis(delegate, matchers, matchers.keySet(), constantKeys, hierarchy != null);
+        int passes = 0;
+        final boolean referencesConstants = CompiledStripConfig.referencesAny(reader, constantOwners);
+        if (referencesConstants || CompiledStripConfig.referencesAny(reader, annotationDescriptors)) {
+            if (!referencesConstants) {
+                analysis.ignoreConstants();
+            }
+            final int analysisOptions = CompiledStripConfig.getAnalysisOptions(reader, referencesConstants || hierarchy != null);
+            reader.accept(analysis, delegate != null ? delegateOptions & analysisOptions : analysisOptions);
+            passes = 1;
+        }
+        final Map<String, StripData> result = new LinkedHashMap<>();
+        for (final CompiledStripConfig config : configs.values()) {
+            final String environment = config.getEnvironment();
+            final StripData data = analysis.resolve(
+                a -> !a.environment.equals(environment),
+                config.annotations.keySet(),
+                matchers.keySet(),
+                config.constants,
+                hierarchy
+            );
+            result.put(environment, data);
+            if (listening) {
+                // The shared parse is attributed to the first environment only, so that totals stay accurate
+                final long end = System.nanoTime();
+                listener.classAnalyzed(reader.getClassName(), environment, data, passes, end - start);
+                start = end;
+                passes = 0;
+            }
+        }
+        return result;
+    }
+
+    public Map<String, byte[]> strip(byte[] classFile, int parsingOptions) {
+        final ClassReader reader = new ClassReader(classFile);
+        final Map<String, byte[]> result = new LinkedHashMap<>();
+        calcStripData(reader, parsingOptions).forEach(
+            (environment, data) -> result.put(environment, configs.get(environment).write(data, classFile, reader, parsingOptions))
+        );
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+
+/**
+ * Tracks how the classes of a jar are nested in each other, so that anonymous and local classes can be removed along
+ * with the methods declaring them, and so that nest and inner class attributes can be kept consistent.
+ * <p>
+ * Instances are not thread-safe, except for {@link #add}.
+ */
+final class NestedClasses {
+    private final Map<String, Collector> classes = new HashMap<>();
+
+    synchronized void add(Collector collector) {
+        classes.putIfAbsent(collector.className, collector);
+    }
+
+    Set<String> findOrphans(Map<String, StripData> data, Set<String> removedClasses) {
+        final Set<String> result = new HashSet<>();
+        final Set<String> checked = new HashSet<>();
+        for (final String className : classes.keySet()) {
+            isOrphan(className, data, removedClasses, result, checked);
+        }
+        return result;
+    }
+
+    private boolean isOrphan(
+        String className,
+        Map<String, StripData> data,
+        Set<String> removedClasses,
+        Set<String> result,
+        Set<String> checked
+    ) {
+        if (removedClasses.contains(className) || result.contains(className)) {
+            return true;
+        }
+        if (!checked.add(className)) {
+            return false;
+        }
+        final Collector collector = classes.get(className);
+        if (collector == null || collector.outerClass == null) {
+            return false;
+        }
+        // A local or anonymous class goes with the method declaring it, and with any class it's declared in
+        final StripData outerData = data.get(collector.outerClass);
+        final boolean orphan = collector.outerMethod != null &&
+            outerData != null &&
+            outerData.methodSet().contains(collector.outerMethod) ||
+            isOrphan(collector.outerClass, data, removedClasses, result, checked);
+        if (orphan) {
+            result.add(className);
+        }
+        return orphan;
+    }
+
+    Set<String> getRemovedNestedClasses(String className, Set<String> removedClasses) {
+        final Collector collector = classes.get(className);
+        if (collector == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> result = new HashSet<>();
+        for (final String nested : collector.nestedClasses) {
+            if (removedClasses.contains(nested)) {
+                result.add(nested);
+            }
+        }
+        return result;
+    }
+
+    static final class Collector extends ClassVisitor {
+        private String className;
+        private String outerClass;
+        private StripData.Member outerMethod;
+        private final Set<String> nestedClasses = new HashSet<>();
+
+        Collector(ClassVisitor delegate) {
+            super(Opcodes.ASM9, delegate);
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            className = name;
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public void visitOuterClass(String owner, String name, String descriptor) {
+            outerClass = owner;
+            if (name != null) {
+                outerMethod = new StripData.Member(name, descriptor);
+            }
+            super.visitOuterClass(owner, name, descriptor);
+        }
+
+        @Override
+        public void visitNestMember(String nestMember) {
+            nestedClasses.add(nestMember);
+            super.visitNestMember(nestMember);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            if (!name.equals(className)) {
+                nestedClasses.add(name);
+            }
+            super.visitInnerClass(name, outerName, innerName, access);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.ProtectionDomain;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@code java.lang.instrument} agent that strips classes as they're loaded. Options are separated by {@code ;}:
+ * <ul>
+ *     <li>{@code environment=<environment>} (required)</li>
+ *     <li>{@code annotation=<environment>:<annotation class name>[:<stripLambdasKey>]} (repeatable)</li>
+ *     <li>{@code defaultStripLambdas=<true|false>}, applying to the annotations that follow it</li>
+ *     <li>{@code timings=<file>}, to write the time spent transforming each class to a file on exit</li>
+ * </ul>
+ * Classes that fail to strip are loaded unchanged, and the failure is reported on standard error.
+ * For example, {@code -javaagent:strip-lib.jar=environment=server;annotation=client:com.example.Client:stripLambdas}.
+ */
+public final class StripAgent {
+    private static StripTransformer transformer;
+
+    private StripAgent() {
+    }
+
+    public static void premain(String agentArgs, Instrumentation instrumentation) {
+        final ClassStripper.Builder builder = ClassStripper.builder();
+        String environment = null;
+        String timingsFile = null;
+        for (final String option : agentArgs != null ? agentArgs.split(";") : new String[0]) {
+            if (option.isEmpty()) continue;
+            final int equals = option.indexOf('=');
+            if (equals == -1) {
+                throw new IllegalArgumentException("Invalid strip-lib agent option " + option);
+            }
+            final String key = option.substring(0, equals);
+            final String value = option.substring(equals + 1);
+            switch (key) {
+                case "environment":
+                    environment = value;
+                    break;
+                case "annotation": {
+                    final String[] parts = value.split(":");
+                    if (parts.length < 2 || parts.length > 3) {
+                        throw new IllegalArgumentException("Invalid strip-lib annotation " + value);
+                    }
+                    builder.annotation(
+                        parts[0], Type.getObjectType(parts[1].replace('.', '/')), parts.length > 2 ? parts[2] : null
+                    );
+                    break;
+                }
+                case "defaultStripLambdas":
+                    builder.defaultStripLambdas(Boolean.parseBoolean(value));
+                    break;
+                case "timings":
+                    timingsFile = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown strip-lib agent option " + key);
+            }
+        }
+        if (environment == null) {
+            throw new IllegalArgumentException("strip-lib agent requires an environment option");
+        }
+
+        builder.listener(new StripListener() {
+            @Override
+            public void classFailed(String className, String environment, Throwable error) {
+                System.err.println("[strip-lib] Failed to strip " + className);
+                error.printStackTrace();
+            }
+        });
+
+        final StripTransformer transformer = new StripTransformer(builder.compile(environment));
+        StripAgent.transformer = transformer;
+        if (timingsFile == null) {
+            instrumentation.addTransformer(transformer);
+            return;
+        }
+
+        // Only recorded when asked for, as the agent sees every class the JVM loads. The whole transform is timed,
+        // including the prescan, writing the output, and generating stubs for removed classes.
+        final Queue<String> timings = new ConcurrentLinkedQueue<>();
+        instrumentation.addTransformer(new ClassFileTransformer() {
+            @Override
+            public byte[] transform(
+                ClassLoader loader,
+                String className,
+                Class<?> classBeingRedefined,
+                ProtectionDomain protectionDomain,
+                byte[] classfileBuffer
+            ) {
+                final long start = System.nanoTime();
+                try {
+                    return transformer.transform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+                } finally {
+                    timings.add(className + '\t' + (System.nanoTime() - start));
+                }
+            }
+        });
+        final String path = timingsFile;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writeTimings(timings, path), "strip-lib timings"));
+    }
+
+    public static void agentmain(String agentArgs, Instrumentation instrumentation) {
+        premain(agentArgs, instrumentation);
+    }
+
+    public static StripTransformer getTransformer() {
+        return transformer;
+    }
+
+    private static void writeTimings(Queue<String> timings, String path) {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(path)))) {
+            for (final String line : timings) {
+                writer.println(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
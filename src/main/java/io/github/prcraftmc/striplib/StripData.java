@@ -2,28 +2,167 @@ package io.github.prcraftmc.striplib;
 
 import org.jetbrains.annotations.NotNull;
 import org.objectweb.asm.*;
+import org.objectweb.asm.tree.MethodNode;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
 public class StripData {
+    /**
+     * Output option to remove the initializers of stripped fields from constructors and static initializers, where
+     * they're free of side effects, rather than computing and discarding the values.
+     */
+    public static final int ELIMINATE_FIELD_INITIALIZERS = 1;
+    /**
+     * Output option to remove every configured strip annotation, for any environment, from whatever is kept.
+     */
+    public static final int REMOVE_STRIP_ANNOTATIONS = 2;
+    /**
+     * Output option to always build a new constant pool when writing a modified class, so that nothing used only by
+     * stripped code is left behind. Without this, the constant pool of the input is copied as-is, which is faster.
+     */
+    public static final int COMPACT_CONSTANT_POOL = 4;
+
     private final boolean entireClass;
-    private final Set<Member> fields;
-    private final Set<Member> methods;
+    private final MemberSet fields;
+    private final MemberSet methods;
     private final Set<String> interfaces;
-    private final Set<Type> annotations;
+    private final Set<String> annotations;
+    private final Set<String> configuredAnnotations;
+    private final Set<String> nestedClasses;
+    private final MemberSet foldMethods;
+    private final Map<String, Object> constants;
+    // The members carrying any configured annotation, or null if the class wasn't parsed to find them
+    private final MemberSet annotatedFields;
+    private final MemberSet annotatedMethods;
+
+    private Set<Member> fieldsView, methodsView;
 
-    StripData(boolean entireClass, Set<Member> fields, Set<Member> methods, Set<String> interfaces, Set<Type> annotations) {
+    StripData(
+        boolean entireClass,
+        MemberSet fields,
+        MemberSet methods,
+        Set<String> interfaces,
+        Set<String> annotations,
+        Set<String> configuredAnnotations
+    ) {
+        this(
+            entireClass,
+            fields,
+            methods,
+            interfaces,
+            annotations,
+            configuredAnnotations,
+            Collections.emptySet(),
+            new MemberSet(),
+            Collections.emptyMap(),
+            null,
+            null
+        );
+    }
+
+    private StripData(
+        boolean entireClass,
+        MemberSet fields,
+        MemberSet methods,
+        Set<String> interfaces,
+        Set<String> annotations,
+        Set<String> configuredAnnotations,
+        Set<String> nestedClasses,
+        MemberSet foldMethods,
+        Map<String, Object> constants,
+        MemberSet annotatedFields,
+        MemberSet annotatedMethods
+    ) {
         this.entireClass = entireClass;
         this.fields = fields;
         this.methods = methods;
         this.interfaces = interfaces;
         this.annotations = annotations;
+        this.configuredAnnotations = configuredAnnotations;
+        this.nestedClasses = nestedClasses;
+        this.foldMethods = foldMethods;
+        this.constants = constants;
+        this.annotatedFields = annotatedFields;
+        this.annotatedMethods = annotatedMethods;
+    }
+
+    StripData withRemoved(MemberSet removedFields, MemberSet removedMethods, Set<String> removedNestedClasses) {
+        if (
+            (removedFields == null || removedFields.isEmpty()) &&
+                (removedMethods == null || removedMethods.isEmpty()) &&
+                removedNestedClasses.isEmpty()
+        ) {
+            return this;
+        }
+        final MemberSet newFields = fields.union(removedFields);
+        final MemberSet newMethods = methods.union(removedMethods);
+        final Set<String> newNestedClasses = new HashSet<>(nestedClasses);
+        newNestedClasses.addAll(removedNestedClasses);
+        return new StripData(
+            entireClass,
+            newFields,
+            newMethods,
+            interfaces,
+            annotations,
+            configuredAnnotations,
+            newNestedClasses,
+            foldMethods,
+            constants,
+            annotatedFields,
+            annotatedMethods
+        );
+    }
+
+    StripData withFolded(MemberSet foldMethods, Map<String, Object> constants) {
+        if (foldMethods.isEmpty()) {
+            return this;
+        }
+        return new StripData(
+            entireClass,
+            fields,
+            methods,
+            interfaces,
+            annotations,
+            configuredAnnotations,
+            nestedClasses,
+            foldMethods,
+            constants,
+            annotatedFields,
+            annotatedMethods
+        );
+    }
+
+    /**
+     * Records which members carry any configured annotation, so that {@link #REMOVE_STRIP_ANNOTATIONS} only needs to
+     * look at those, and the rest can be copied as-is.
+     */
+    StripData withAnnotated(MemberSet annotatedFields, MemberSet annotatedMethods) {
+        return new StripData(
+            entireClass,
+            fields,
+            methods,
+            interfaces,
+            annotations,
+            configuredAnnotations,
+            nestedClasses,
+            foldMethods,
+            constants,
+            annotatedFields,
+            annotatedMethods
+        );
     }
 
     public boolean isEmpty() {
-        return !entireClass && fields.isEmpty() && methods.isEmpty() && interfaces.isEmpty();
+        return !entireClass && fields.isEmpty() && methods.isEmpty() && interfaces.isEmpty() && nestedClasses.isEmpty() &&
+            foldMethods.isEmpty();
     }
 
     public boolean stripEntireClass() {
@@ -31,29 +170,145 @@ public class StripData {
     }
 
     public Set<Member> getMethods() {
-        return methods;
+        if (methodsView == null) {
+            methodsView = methods.toMembers();
+        }
+        return methodsView;
     }
 
     public Set<Member> getFields() {
+        if (fieldsView == null) {
+            fieldsView = fields.toMembers();
+        }
+        return fieldsView;
+    }
+
+    MemberSet fieldSet() {
         return fields;
     }
 
+    MemberSet methodSet() {
+        return methods;
+    }
+
     public Set<String> getInterfaces() {
         return interfaces;
     }
 
+    public Set<String> getNestedClasses() {
+        return nestedClasses;
+    }
+
+    /**
+     * Returns the kept methods that reference environment constants, which are folded when written.
+     */
+    public Set<Member> getFoldedMethods() {
+        return foldMethods.toMembers();
+    }
+
+    byte[] write(byte[] classFile, ClassReader reader, int parsingOptions, int outputOptions) {
+        if (entireClass) {
+            return null;
+        }
+        if (!needsRewrite(outputOptions)) {
+            return classFile;
+        }
+        return rewrite(reader, parsingOptions, outputOptions);
+    }
+
+    boolean needsRewrite(int outputOptions) {
+        return !entireClass && (!isEmpty() || (outputOptions & REMOVE_STRIP_ANNOTATIONS) != 0);
+    }
+
+    byte[] rewrite(ClassReader reader, int parsingOptions, int outputOptions) {
+        // Passing the reader lets ASM copy the constant pool and any unchanged methods as-is
+        final ClassWriter writer = (outputOptions & COMPACT_CONSTANT_POOL) != 0
+            ? new ClassWriter(0)
+            : new ClassWriter(reader, 0);
+        reader.accept(visitor(writer, outputOptions), parsingOptions);
+        return writer.toByteArray();
+    }
+
+    void writeTo(DataOutput output) throws IOException {
+        output.writeBoolean(entireClass);
+        writeMembers(output, fields);
+        writeMembers(output, methods);
+        output.writeShort(interfaces.size());
+        for (final String itf : interfaces) {
+            output.writeUTF(itf);
+        }
+        writeMembers(output, foldMethods);
+        output.writeBoolean(annotatedFields != null);
+        if (annotatedFields != null) {
+            writeMembers(output, annotatedFields);
+            writeMembers(output, annotatedMethods);
+        }
+    }
+
+    private static void writeMembers(DataOutput output, MemberSet members) throws IOException {
+        output.writeShort(members.size());
+        for (final Member member : members.toMembers()) {
+            output.writeUTF(member.getName());
+            output.writeUTF(member.getDescriptor());
+        }
+    }
+
+    static StripData readFrom(
+        DataInput input,
+        Set<String> annotations,
+        Set<String> configuredAnnotations,
+        Map<String, Object> constants
+    ) throws IOException {
+        final boolean entireClass = input.readBoolean();
+        final MemberSet fields = readMembers(input);
+        final MemberSet methods = readMembers(input);
+        final int interfaceCount = input.readUnsignedShort();
+        final Set<String> interfaces = new HashSet<>();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(input.readUTF());
+        }
+        final StripData result = new StripData(entireClass, fields, methods, interfaces, annotations, configuredAnnotations)
+            .withFolded(readMembers(input), constants);
+        if (!input.readBoolean()) {
+            return result;
+        }
+        return result.withAnnotated(readMembers(input), readMembers(input));
+    }
+
+    private static MemberSet readMembers(DataInput input) throws IOException {
+        final int count = input.readUnsignedShort();
+        final MemberSet result = new MemberSet();
+        for (int i = 0; i < count; i++) {
+            result.add(input.readUTF(), input.readUTF());
+        }
+        return result;
+    }
+
     public ClassVisitor visitor(ClassVisitor delegate) {
+        return visitor(delegate, 0);
+    }
+
+    public ClassVisitor visitor(ClassVisitor delegate, int outputOptions) {
+        if ((outputOptions & REMOVE_STRIP_ANNOTATIONS) != 0) {
+            delegate = new AnnotationRemover(delegate, configuredAnnotations, annotatedFields, annotatedMethods);
+        }
         return new ClassVisitor(Opcodes.ASM9, delegate) {
             String className;
+            // The new index of each interface, or -1 if it's stripped, or null if none are
+            int[] interfaceIndices;
 
             @Override
             public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
                 final Set<String> stripInterfaces = StripData.this.interfaces;
                 if (interfaces != null && !stripInterfaces.isEmpty()) {
+                    interfaceIndices = new int[interfaces.length];
                     int next = 0;
                     for (int i = 0; i < interfaces.length; i++) {
                         if (!stripInterfaces.contains(interfaces[i])) {
+                            interfaceIndices[i] = next;
                             interfaces[next++] = interfaces[i];
+                        } else {
+                            interfaceIndices[i] = -1;
                         }
                     }
                     if (next < interfaces.length) {
@@ -64,17 +319,41 @@ public class StripData {
                 super.visit(version, access, name, signature, superName, interfaces);
             }
 
+            @Override
+            public void visitNestMember(String nestMember) {
+                if (!nestedClasses.contains(nestMember)) {
+                    super.visitNestMember(nestMember);
+                }
+            }
+
+            @Override
+            public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                if (!nestedClasses.contains(name)) {
+                    super.visitInnerClass(name, outerName, innerName, access);
+                }
+            }
+
             @Override
             public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
-                if (annotations.contains(Type.getType(descriptor))) {
-                    return null;
+                final TypeReference reference = new TypeReference(typeRef);
+                if (
+                    interfaceIndices != null &&
+                        reference.getSort() == TypeReference.CLASS_EXTENDS &&
+                        reference.getSuperTypeIndex() >= 0
+                ) {
+                    // Annotations on the stripped interfaces go with them, and the rest follow their interfaces
+                    final int index = interfaceIndices[reference.getSuperTypeIndex()];
+                    if (index < 0) {
+                        return null;
+                    }
+                    typeRef = TypeReference.newSuperTypeReference(index).getValue();
                 }
                 return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
             }
 
             @Override
             public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
-                if (!fields.isEmpty() && fields.contains(new Member(name, Type.getType(descriptor)))) {
+                if (!fields.isEmpty() && fields.contains(name, descriptor)) {
                     return null;
                 }
                 return super.visitField(access, name, descriptor, signature, value);
@@ -82,17 +361,31 @@ public class StripData {
 
             @Override
             public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
-                if (!methods.isEmpty() && methods.contains(new Member(name, Type.getMethodType(descriptor)))) {
+                if (!methods.isEmpty() && methods.contains(name, descriptor)) {
                     return null;
                 }
+                final MethodVisitor output = visitKeptMethod(access, name, descriptor, signature, exceptions);
+                if (foldMethods.isEmpty() || !foldMethods.contains(name, descriptor)) {
+                    return output;
+                }
+                return new MethodNode(api, access, name, descriptor, signature, exceptions) {
+                    @Override
+                    public void visitEnd() {
+                        ConstantFolder.fold(className, constants, this);
+                        accept(output);
+                    }
+                };
+            }
+
+            private MethodVisitor visitKeptMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
                 if (!fields.isEmpty() && (name.equals("<init>") || name.equals("<clinit>"))) {
-                    return new MethodVisitor(api, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                    final MethodVisitor popStores = new MethodVisitor(api, super.visitMethod(access, name, descriptor, signature, exceptions)) {
                         @Override
                         public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
                             if (
                                 (opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC) &&
                                     owner.equals(className) &&
-                                    fields.contains(new Member(name, Type.getType(descriptor)))
+                                    fields.contains(name, descriptor)
                             ) {
                                 visitInsn(descriptor.equals("J") || descriptor.equals("D") ? Opcodes.POP2 : Opcodes.POP);
                                 if (opcode == Opcodes.PUTFIELD) {
@@ -102,6 +395,32 @@ public class StripData {
                             }
                             super.visitFieldInsn(opcode, owner, name, descriptor);
                         }
+
+                        @Override
+                        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                            final Member lambdaTarget = ClassAnalysis.getLambdaTarget(className, bootstrapMethodHandle, bootstrapMethodArguments);
+                            if (lambdaTarget != null && methods.contains(lambdaTarget)) {
+                                // The lambda was only stored into a stripped field, so the store that follows gets
+                                // popped as well. Linking the call site would fail with its method gone.
+                                final Type[] captured = Type.getArgumentTypes(descriptor);
+                                for (int i = captured.length - 1; i >= 0; i--) {
+                                    visitInsn(captured[i].getSize() == 2 ? Opcodes.POP2 : Opcodes.POP);
+                                }
+                                visitInsn(Opcodes.ACONST_NULL);
+                                return;
+                            }
+                            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+                        }
+                    };
+                    if ((outputOptions & ELIMINATE_FIELD_INITIALIZERS) == 0) {
+                        return popStores;
+                    }
+                    return new MethodNode(api, access, name, descriptor, signature, exceptions) {
+                        @Override
+                        public void visitEnd() {
+                            FieldInitializerEliminator.eliminate(className, fields, this);
+                            accept(popStores);
+                        }
                     };
                 }
                 return super.visitMethod(access, name, descriptor, signature, exceptions);
@@ -113,11 +432,18 @@ public class StripData {
         @NotNull
         private final String name;
         @NotNull
-        private final Type type;
+        private final String descriptor;
+        private Type type;
 
         public Member(@NotNull String name, @NotNull Type type) {
             this.name = Objects.requireNonNull(name, "name");
             this.type = Objects.requireNonNull(type, "type");
+            this.descriptor = type.getDescriptor();
+        }
+
+        public Member(@NotNull String name, @NotNull String descriptor) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.descriptor = Objects.requireNonNull(descriptor, "descriptor");
         }
 
         @NotNull
@@ -125,8 +451,16 @@ public class StripData {
             return name;
         }
 
+        @NotNull
+        public String getDescriptor() {
+            return descriptor;
+        }
+
         @NotNull
         public Type getType() {
+            if (type == null) {
+                type = Type.getType(descriptor);
+            }
             return type;
         }
 
@@ -135,20 +469,20 @@ public class StripData {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             Member member = (Member)o;
-            return Objects.equals(name, member.name) && Objects.equals(type, member.type);
+            return name.equals(member.name) && descriptor.equals(member.descriptor);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(name, type);
+            return 31 * name.hashCode() + descriptor.hashCode();
         }
 
         @Override
         public String toString() {
-            if (type.getSort() == Type.METHOD) {
-                return name + type;
+            if (descriptor.charAt(0) == '(') {
+                return name + descriptor;
             }
-            return name + ':' + type;
+            return name + ':' + descriptor;
         }
     }
 }
@@ -0,0 +1,191 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A content-addressed cache of {@link StripData}, keyed by the class file bytes and
+ * {@link CompiledStripConfig#getFingerprint()}. Instances are safe to share between threads.
+ * <p>
+ * Classes that strip interfaces aren't cached when interface implementations are stripped too, as the result depends
+ * on their supertypes, which aren't part of the key.
+ */
+public class StripDataCache {
+    private static final int FILE_MAGIC = 0x53444335; // SDC5
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Map<String, StripData> memory;
+    private final Path directory;
+
+    private StripDataCache(int memoryEntries, Path directory) {
+        this.memory = new LinkedHashMap<String, StripData>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StripData> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        this.directory = directory;
+    }
+
+    public StripData calcStripData(CompiledStripConfig config, byte[] classFile, int parsingOptions) {
+        final ClassReader reader = new ClassReader(classFile);
+        return calcStripData(config, classFile, reader, () -> config.calcStripData(reader, parsingOptions));
+    }
+
+    public byte[] strip(CompiledStripConfig config, byte[] classFile, int parsingOptions) {
+        final ClassReader reader = new ClassReader(classFile);
+        return config.write(
+            calcStripData(config, classFile, reader, () -> config.calcStripData(reader, parsingOptions)),
+            classFile,
+            reader,
+            parsingOptions
+        );
+    }
+
+    /**
+     * Looks the class up in the cache, calling {@code analyze} only on a miss. Hits are reported to the listener as
+     * analyzed without any passes.
+     */
+    StripData calcStripData(CompiledStripConfig config, byte[] classFile, ClassReader reader, Supplier<StripData> analyze) {
+        if (!config.mayNeedStripping(reader)) {
+            // The prescan is cheaper than hashing the class
+            return analyze.get();
+        }
+        final long start = config.listener != StripListener.NOOP ? System.nanoTime() : 0;
+        final String key = key(config, classFile);
+        StripData result;
+        synchronized (memory) {
+            result = memory.get(key);
+        }
+        if (result != null) {
+            reportHit(config, reader, result, start);
+            return result;
+        }
+        if (directory != null) {
+            result = readFromDisk(key, config);
+            if (result != null) {
+                reportHit(config, reader, result, start);
+            }
+        }
+        if (result == null) {
+            result = analyze.get();
+            if (config.hierarchy != null && !result.getInterfaces().isEmpty()) {
+                return result;
+            }
+            if (directory != null) {
+                writeToDisk(key, result);
+            }
+        }
+        synchronized (memory) {
+            memory.put(key, result);
+        }
+        return result;
+    }
+
+    private static void reportHit(CompiledStripConfig config, ClassReader reader, StripData result, long start) {
+        if (config.listener != StripListener.NOOP) {
+            config.listener.classAnalyzed(
+                reader.getClassName(), config.getEnvironment(), result, 0, System.nanoTime() - start
+            );
+        }
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    private StripData readFromDisk(String key, CompiledStripConfig config) {
+        final Path path = getPath(key);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != FILE_MAGIC) {
+                return null;
+            }
+            return StripData.readFrom(input, config.annotations.keySet(), config.configuredAnnotations, config.constants);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (EOFException | UTFDataFormatException e) {
+            // Truncated or corrupted entry; it'll be rewritten
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeToDisk(String key, StripData data) {
+        final Path path = getPath(key);
+        try {
+            Files.createDirectories(path.getParent());
+            final Path temp = Files.createTempFile(path.getParent(), key.substring(2), ".tmp");
+            try {
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    output.writeInt(FILE_MAGIC);
+                    data.writeTo(output);
+                }
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String key(CompiledStripConfig config, byte[] classFile) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is unavailable", e);
+        }
+        digest.update(config.getFingerprint().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        final byte[] hash = digest.digest(classFile);
+        final char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            result[i * 2] = HEX_DIGITS[hash[i] >> 4 & 0xf];
+            result[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int memoryEntries = 4096;
+        private Path directory;
+
+        private Builder() {
+        }
+
+        public Builder memoryEntries(int memoryEntries) {
+            if (memoryEntries < 0) {
+                throw new IllegalArgumentException("memoryEntries must not be negative");
+            }
+            this.memoryEntries = memoryEntries;
+            return this;
+        }
+
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public StripDataCache build() {
+            return new StripDataCache(memoryEntries, directory);
+        }
+    }
+}
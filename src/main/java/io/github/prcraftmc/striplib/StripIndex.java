@@ -0,0 +1,154 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the classes in a jar that reference any of the configured strip annotations, or the owner of any
+ * environment constant. It doesn't depend on the environment, so one index serves every environment of a
+ * {@link ClassStripper.Builder}.
+ * <p>
+ * An index remembers the jar and annotations it was built for, and {@link #isValidFor} checks that they're unchanged.
+ * The jar is compared by the names, sizes and CRCs in its central directory, so no entries need to be read to do so.
+ */
+public final class StripIndex {
+    private static final int FILE_MAGIC = 0x53494431; // SID1
+    private static final int REFERENCES_LAMBDA_METAFACTORY = 1;
+
+    private final byte[] jarHash;
+    private final Set<String> annotations;
+    private final Map<String, Integer> entries;
+
+    private StripIndex(byte[] jarHash, Set<String> annotations, Map<String, Integer> entries) {
+        this.jarHash = jarHash;
+        this.annotations = annotations;
+        this.entries = entries;
+    }
+
+    public static StripIndex build(Path jar, ClassStripper.Builder builder) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            return build(zip, builder.getPrescanNames());
+        }
+    }
+
+    static StripIndex build(ZipFile zip, Set<String> annotations) throws IOException {
+        final byte[][] descriptors = CompiledStripConfig.encodeDescriptors(annotations);
+        final Map<String, Integer> entries = new LinkedHashMap<>();
+        final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while (zipEntries.hasMoreElements()) {
+            final ZipEntry entry = zipEntries.nextElement();
+            if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+            final ClassReader reader;
+            try (InputStream is = zip.getInputStream(entry)) {
+                reader = new ClassReader(is);
+            }
+            if (CompiledStripConfig.referencesAny(reader, descriptors)) {
+                entries.put(
+                    entry.getName(),
+                    CompiledStripConfig.referencesAny(reader, CompiledStripConfig.LAMBDA_METAFACTORY) ? REFERENCES_LAMBDA_METAFACTORY : 0
+                );
+            }
+        }
+        return new StripIndex(hashJar(zip), new TreeSet<>(annotations), entries);
+    }
+
+    public static StripIndex read(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException(file + " is not a strip index");
+            }
+            final byte[] jarHash = new byte[input.readUnsignedByte()];
+            input.readFully(jarHash);
+            final int annotationCount = input.readInt();
+            final Set<String> annotations = new TreeSet<>();
+            for (int i = 0; i < annotationCount; i++) {
+                annotations.add(input.readUTF());
+            }
+            final int entryCount = input.readInt();
+            final Map<String, Integer> entries = new LinkedHashMap<>();
+            for (int i = 0; i < entryCount; i++) {
+                entries.put(input.readUTF(), (int)input.readByte());
+            }
+            return new StripIndex(jarHash, annotations, entries);
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.writeInt(FILE_MAGIC);
+                output.writeByte(jarHash.length);
+                output.write(jarHash);
+                output.writeInt(annotations.size());
+                for (final String annotation : annotations) {
+                    output.writeUTF(annotation);
+                }
+                output.writeInt(entries.size());
+                for (final Map.Entry<String, Integer> entry : entries.entrySet()) {
+                    output.writeUTF(entry.getKey());
+                    output.writeByte(entry.getValue());
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public boolean isValidFor(Path jar, ClassStripper.Builder builder) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            return isValidFor(zip, builder.getPrescanNames());
+        }
+    }
+
+    boolean isValidFor(ZipFile zip, Set<String> annotations) {
+        return this.annotations.equals(annotations) && Arrays.equals(jarHash, hashJar(zip));
+    }
+
+    /**
+     * Returns whether the class in the given jar entry may need stripping. Entries that aren't classes are never
+     * listed.
+     */
+    public boolean mayNeedStripping(String entryName) {
+        return entries.containsKey(entryName);
+    }
+
+    public boolean referencesLambdaMetafactory(String entryName) {
+        final Integer flags = entries.get(entryName);
+        return flags != null && (flags & REFERENCES_LAMBDA_METAFACTORY) != 0;
+    }
+
+    public Set<String> getEntries() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    private static byte[] hashJar(ZipFile zip) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is unavailable", e);
+        }
+        final Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            digest.update((entry.getName() + '\0' + entry.getSize() + '\0' + entry.getCrc() + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+}
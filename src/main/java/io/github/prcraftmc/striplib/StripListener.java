@@ -0,0 +1,39 @@
+package io.github.prcraftmc.striplib;
+
+/**
+ * Receives events from stripping, for metrics. Set with {@link ClassStripper.Builder#listener(StripListener)}.
+ * <p>
+ * Listeners may be called from multiple threads at once. When no listener is set, {@link #NOOP} is used, and no
+ * timings are taken at all.
+ *
+ * @see StripStatistics
+ */
+public interface StripListener {
+    StripListener NOOP = new StripListener() {
+    };
+
+    /**
+     * Called when a class has been analyzed.
+     *
+     * @param passes The number of times the class was parsed. This is {@code 0} when the prescan or an index ruled the
+     *               class out, or when its result came from a {@link StripDataCache}.
+     */
+    default void classAnalyzed(String className, String environment, StripData result, int passes, long nanos) {
+    }
+
+    /**
+     * Called when a stripped class has been written.
+     *
+     * @param bytesOut The size of the output, or {@code 0} if the class was removed. When the output was a
+     *                 {@link org.objectweb.asm.ClassVisitor} rather than a byte array, both sizes are {@code -1}.
+     */
+    default void classWritten(String className, String environment, StripData result, int bytesIn, int bytesOut, long nanos) {
+    }
+
+    /**
+     * Called when a class couldn't be stripped, where the error can't be thrown to the caller, such as from a
+     * {@link StripTransformer}.
+     */
+    default void classFailed(String className, String environment, Throwable error) {
+    }
+}
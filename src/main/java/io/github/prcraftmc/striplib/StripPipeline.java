@@ -0,0 +1,212 @@
+package io.github.prcraftmc.striplib;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * A streaming stage that strips classes on an executor and hands the results to a consumer in the order they were
+ * submitted. At most a fixed number of classes are in flight at once, counting those whose results haven't been
+ * consumed yet, so {@link #submit} blocks when the consumer falls behind. Streams of any size pass through in constant
+ * memory.
+ * <p>
+ * The consumer is never called concurrently. If stripping a class or the consumer fails, no further results are
+ * delivered, and the failure is thrown from the next call to {@link #submit} or {@link #awaitCompletion}.
+ */
+public final class StripPipeline {
+    private final CompiledStripConfig config;
+    private final Executor executor;
+    private final int parsingOptions;
+    private final Consumer<Result> output;
+    private final Semaphore permits;
+    private final Deque<Slot> pending = new ArrayDeque<>();
+    private boolean delivering;
+    private volatile RuntimeException failure;
+
+    private StripPipeline(
+        CompiledStripConfig config,
+        Executor executor,
+        int maxInFlight,
+        int parsingOptions,
+        Consumer<Result> output
+    ) {
+        this.config = config;
+        this.executor = executor;
+        this.parsingOptions = parsingOptions;
+        this.output = output;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Queues a class for stripping, waiting for room if too many are already in flight.
+     */
+    public void submit(String name, byte[] classFile) throws InterruptedException {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(classFile, "classFile");
+        checkFailure();
+        permits.acquire();
+        final Slot slot = new Slot(name);
+        synchronized (this) {
+            pending.add(slot);
+        }
+        try {
+            executor.execute(() -> {
+                Result result = null;
+                try {
+                    final byte[] stripped = config.strip(classFile, parsingOptions);
+                    final Status status = stripped == null
+                        ? Status.REMOVED
+                        : stripped == classFile ? Status.UNCHANGED : Status.STRIPPED;
+                    result = new Result(name, status, stripped);
+                } catch (RuntimeException | Error e) {
+                    fail(name, e);
+                }
+                complete(slot, result);
+            });
+        } catch (RejectedExecutionException e) {
+            fail(name, e);
+            complete(slot, null);
+            checkFailure();
+        }
+    }
+
+    /**
+     * Waits for every submitted class to be delivered.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        synchronized (this) {
+            while (!pending.isEmpty() || delivering) {
+                wait();
+            }
+        }
+        checkFailure();
+    }
+
+    private void complete(Slot slot, Result result) {
+        synchronized (this) {
+            slot.result = result;
+            slot.done = true;
+            if (delivering) return;
+            delivering = true;
+        }
+        // Whichever thread finds the head of the queue done delivers everything that's ready after it too
+        while (true) {
+            final Slot head;
+            synchronized (this) {
+                head = pending.peek();
+                if (head == null || !head.done) {
+                    delivering = false;
+                    notifyAll();
+                    return;
+                }
+                pending.remove();
+            }
+            try {
+                if (head.result != null && failure == null) {
+                    output.accept(head.result);
+                }
+            } catch (RuntimeException | Error e) {
+                fail(head.name, e);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private synchronized void fail(String name, Throwable cause) {
+        if (failure == null) {
+            failure = new IllegalStateException("Failed to strip " + name, cause);
+        }
+    }
+
+    private void checkFailure() {
+        final RuntimeException failure = this.failure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public static Builder builder(CompiledStripConfig config) {
+        return new Builder(config);
+    }
+
+    private static final class Slot {
+        final String name;
+        Result result;
+        boolean done;
+
+        Slot(String name) {
+            this.name = name;
+        }
+    }
+
+    public enum Status {
+        UNCHANGED, STRIPPED, REMOVED
+    }
+
+    public static final class Result {
+        private final String name;
+        private final Status status;
+        private final byte[] classFile;
+
+        Result(String name, Status status, byte[] classFile) {
+            this.name = name;
+            this.status = status;
+            this.classFile = classFile;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the stripped class file, which is the submitted array itself if it's {@link Status#UNCHANGED}, or
+         * {@code null} if it was {@link Status#REMOVED}.
+         */
+        public byte[] getClassFile() {
+            return classFile;
+        }
+    }
+
+    public static class Builder {
+        private final CompiledStripConfig config;
+        private Executor executor = ForkJoinPool.commonPool();
+        private int maxInFlight = ForkJoinPool.getCommonPoolParallelism() * 4;
+        private int parsingOptions = 0;
+
+        private Builder(CompiledStripConfig config) {
+            this.config = Objects.requireNonNull(config, "config");
+        }
+
+        public Builder executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor, "executor");
+            return this;
+        }
+
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be positive");
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Builder parsingOptions(int parsingOptions) {
+            this.parsingOptions = parsingOptions;
+            return this;
+        }
+
+        public StripPipeline build(Consumer<Result> output) {
+            return new StripPipeline(config, executor, maxInFlight, parsingOptions, Objects.requireNonNull(output, "output"));
+        }
+    }
+}
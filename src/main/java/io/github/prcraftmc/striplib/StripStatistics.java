@@ -0,0 +1,111 @@
+package io.github.prcraftmc.striplib;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link StripListener} that totals up every event it receives. Instances are safe to share between threads.
+ */
+public class StripStatistics implements StripListener {
+    private final LongAdder classesScanned = new LongAdder();
+    private final LongAdder classesUntouched = new LongAdder();
+    private final LongAdder classesModified = new LongAdder();
+    private final LongAdder classesRemoved = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder fieldsStripped = new LongAdder();
+    private final LongAdder methodsStripped = new LongAdder();
+    private final LongAdder interfacesStripped = new LongAdder();
+    private final LongAdder analysisNanos = new LongAdder();
+    private final LongAdder outputNanos = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    @Override
+    public void classAnalyzed(String className, String environment, StripData result, int passes, long nanos) {
+        classesScanned.increment();
+        if (result.stripEntireClass()) {
+            classesRemoved.increment();
+        } else if (result.isEmpty()) {
+            classesUntouched.increment();
+        } else {
+            classesModified.increment();
+        }
+        this.passes.add(passes);
+        fieldsStripped.add(result.fieldSet().size());
+        methodsStripped.add(result.methodSet().size());
+        interfacesStripped.add(result.getInterfaces().size());
+        analysisNanos.add(nanos);
+    }
+
+    @Override
+    public void classWritten(String className, String environment, StripData result, int bytesIn, int bytesOut, long nanos) {
+        outputNanos.add(nanos);
+        if (bytesOut >= 0) {
+            this.bytesIn.add(bytesIn);
+            this.bytesOut.add(bytesOut);
+        }
+    }
+
+    public long getClassesScanned() {
+        return classesScanned.sum();
+    }
+
+    public long getClassesUntouched() {
+        return classesUntouched.sum();
+    }
+
+    public long getClassesModified() {
+        return classesModified.sum();
+    }
+
+    public long getClassesRemoved() {
+        return classesRemoved.sum();
+    }
+
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    public long getFieldsStripped() {
+        return fieldsStripped.sum();
+    }
+
+    public long getMethodsStripped() {
+        return methodsStripped.sum();
+    }
+
+    public long getInterfacesStripped() {
+        return interfacesStripped.sum();
+    }
+
+    public long getAnalysisNanos() {
+        return analysisNanos.sum();
+    }
+
+    public long getOutputNanos() {
+        return outputNanos.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Classes scanned: " + getClassesScanned() +
+            " (untouched: " + getClassesUntouched() +
+            ", modified: " + getClassesModified() +
+            ", removed: " + getClassesRemoved() + ")\n" +
+            "Parse passes: " + getPasses() + '\n' +
+            "Stripped fields: " + getFieldsStripped() +
+            ", methods: " + getMethodsStripped() +
+            ", interfaces: " + getInterfacesStripped() + '\n' +
+            "Analysis time: " + TimeUnit.NANOSECONDS.toMillis(getAnalysisNanos()) + "ms" +
+            ", output time: " + TimeUnit.NANOSECONDS.toMillis(getOutputNanos()) + "ms\n" +
+            "Bytes in: " + getBytesIn() + ", bytes out: " + getBytesOut();
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Objects;
+
+public class StripTransformer implements ClassFileTransformer {
+    private final CompiledStripConfig config;
+    private final int parsingOptions;
+
+    public StripTransformer(CompiledStripConfig config) {
+        this(config, 0);
+    }
+
+    public StripTransformer(CompiledStripConfig config, int parsingOptions) {
+        this.config = Objects.requireNonNull(config, "config");
+        this.parsingOptions = parsingOptions;
+    }
+
+    @Override
+    public byte[] transform(
+        ClassLoader loader,
+        String className,
+        Class<?> classBeingRedefined,
+        ProtectionDomain protectionDomain,
+        byte[] classfileBuffer
+    ) {
+        if (className == null) {
+            return null;
+        }
+        try {
+            final ClassReader reader = new ClassReader(classfileBuffer);
+            // The constant pool is scanned once, for both the prescan and the analysis
+            final int prescan = config.prescan(reader);
+            if (!CompiledStripConfig.mayNeedStripping(prescan)) {
+                return null;
+            }
+            final StripData data = config.newStripper().calcStripData(reader, parsingOptions, prescan);
+            if (data.isEmpty()) {
+                return null;
+            }
+            if (data.stripEntireClass()) {
+                return createUnavailableClass(reader);
+            }
+            return config.write(data, classfileBuffer, reader, parsingOptions);
+        } catch (Throwable t) {
+            // Exceptions thrown from here are silently swallowed by the JVM, so they're handed to the listener instead
+            config.listener.classFailed(className, config.getEnvironment(), t);
+            return null;
+        }
+    }
+
+    private byte[] createUnavailableClass(ClassReader reader) {
+        // The class keeps its name, so that it fails with a useful message as soon as it's initialized
+        final String className = reader.getClassName();
+        int access = reader.getAccess() & (Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_ANNOTATION);
+        if ((access & Opcodes.ACC_INTERFACE) == 0) {
+            access |= Opcodes.ACC_SUPER;
+        }
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, access, className, null, "java/lang/Object", null);
+        final MethodVisitor clinit = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        clinit.visitCode();
+        clinit.visitTypeInsn(Opcodes.NEW, "java/lang/NoClassDefFoundError");
+        clinit.visitInsn(Opcodes.DUP);
+        clinit.visitLdcInsn(className.replace('/', '.') + " is not available in environment " + config.getEnvironment());
+        clinit.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/NoClassDefFoundError", "<init>", "(Ljava/lang/String;)V", false);
+        clinit.visitInsn(Opcodes.ATHROW);
+        clinit.visitMaxs(3, 0);
+        clinit.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,331 @@
+package io.github.prcraftmc.striplib;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps per-environment output directories in sync with directories of compiled classes, re-stripping only the files
+ * that change. Call {@link #syncAll()} once to bring the outputs up to date, and then {@link #run()} to keep them that
+ * way until {@link #close()} is called. Files other than classes are copied as-is.
+ * <p>
+ * Classes that fail to strip have their outputs deleted, and are reported to the
+ * {@linkplain ClassStripper.Builder#listener listener}.
+ */
+public class StripWatcher implements Closeable {
+    // Compilers write many files at once, so events arriving this close together are handled as one batch
+    private static final long BATCH_MILLIS = 20;
+
+    private final MultiEnvironmentConfig config;
+    private final List<Path> inputs;
+    private final Map<String, Path> outputs;
+    private final int parsingOptions;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    private StripWatcher(
+        MultiEnvironmentConfig config,
+        List<Path> inputs,
+        Map<String, Path> outputs,
+        int parsingOptions
+    ) throws IOException {
+        this.config = config;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.parsingOptions = parsingOptions;
+        this.watchService = inputs.get(0).getFileSystem().newWatchService();
+        try {
+            for (final Path input : inputs) {
+                register(input);
+            }
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Strips every input file, and deletes any output file that no longer has an input.
+     */
+    public void syncAll() throws IOException {
+        for (final Path input : inputs) {
+            try (Stream<Path> files = Files.walk(input)) {
+                files.filter(Files::isRegularFile).forEach(file -> sync(input, file));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        for (final Path output : outputs.values()) {
+            if (!Files.isDirectory(output)) continue;
+            final List<Path> stale = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(output)) {
+                files.filter(Files::isRegularFile).forEach(file -> {
+                    if (!isProvided(output.relativize(file).toString())) {
+                        stale.add(file);
+                    }
+                });
+            }
+            for (final Path file : stale) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Processes changes until this watcher is closed.
+     */
+    public void run() throws IOException, InterruptedException {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            final Set<Path> changed = new LinkedHashSet<>();
+            boolean overflow = false;
+            try {
+                do {
+                    overflow |= drain(key, changed);
+                } while ((key = watchService.poll(BATCH_MILLIS, TimeUnit.MILLISECONDS)) != null);
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            if (overflow) {
+                syncAll();
+                continue;
+            }
+            try {
+                for (final Path path : changed) {
+                    final Path input = getInput(path);
+                    if (input != null) {
+                        sync(input, path);
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private boolean drain(WatchKey key, Set<Path> changed) throws IOException {
+        final Path directory = watchedDirectories.get(key);
+        boolean overflow = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                overflow = true;
+                continue;
+            }
+            final Path path = directory.resolve((Path)event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files may have been written before the new directory was registered
+                try {
+                    register(path);
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(Files::isRegularFile).forEach(changed::add);
+                    }
+                } catch (NoSuchFileException e) {
+                    changed.add(path);
+                }
+            } else {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void register(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                watchedDirectories.put(dir.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+                ), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Path getInput(Path path) {
+        for (final Path input : inputs) {
+            if (path.startsWith(input)) {
+                return input;
+            }
+        }
+        return null;
+    }
+
+    private void sync(Path input, Path file) {
+        final String relative = input.relativize(file).toString();
+        try {
+            if (Files.isDirectory(file)) return;
+            if (!Files.exists(file)) {
+                // Another input may still provide the same path, such as a package directory holding both classes and
+                // resources, so only what nothing provides anymore goes
+                for (final Path output : outputs.values()) {
+                    deleteUnprovided(output, output.resolve(relative));
+                }
+                for (final Path other : inputs) {
+                    final Path replacement = other.resolve(relative);
+                    if (Files.isRegularFile(replacement)) {
+                        sync(other, replacement);
+                        break;
+                    }
+                }
+                return;
+            }
+            final byte[] data = Files.readAllBytes(file);
+            if (!relative.endsWith(".class")) {
+                for (final Path output : outputs.values()) {
+                    write(output.resolve(relative), data);
+                }
+                return;
+            }
+            final Map<String, byte[]> results = new LinkedHashMap<>();
+            try {
+                final ClassReader reader = new ClassReader(data);
+                final Map<String, StripData> stripData = config.calcStripData(reader, parsingOptions);
+                for (final String environment : outputs.keySet()) {
+                    results.put(
+                        environment, config.getConfig(environment).write(stripData.get(environment), data, reader, parsingOptions)
+                    );
+                }
+            } catch (RuntimeException e) {
+                if (!Arrays.equals(data, Files.readAllBytes(file))) {
+                    // Still being written, so there'll be another event once it's done
+                    return;
+                }
+                // Nothing is left behind that no longer matches the input
+                final String className = relative.substring(0, relative.length() - ".class".length())
+                    .replace(file.getFileSystem().getSeparator(), "/");
+                for (final Map.Entry<String, Path> output : outputs.entrySet()) {
+                    Files.deleteIfExists(output.getValue().resolve(relative));
+                    config.getConfig(output.getKey()).listener.classFailed(className, output.getKey(), e);
+                }
+                return;
+            }
+            for (final Map.Entry<String, Path> output : outputs.entrySet()) {
+                final byte[] result = results.get(output.getKey());
+                if (result != null) {
+                    write(output.getValue().resolve(relative), result);
+                } else {
+                    Files.deleteIfExists(output.getValue().resolve(relative));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted while being read; the deletion is handled by its own event
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean isProvided(String relative) {
+        return inputs.stream().anyMatch(input -> Files.exists(input.resolve(relative)));
+    }
+
+    /**
+     * Deletes {@code path}, or everything under it, that isn't provided by any input.
+     */
+    private void deleteUnprovided(Path output, Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            if (!isProvided(output.relativize(path).toString())) {
+                Files.deleteIfExists(path);
+            }
+            return;
+        }
+        final List<Path> toDelete = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(path)) {
+            files.forEach(toDelete::add);
+        }
+        Collections.reverse(toDelete);
+        for (final Path file : toDelete) {
+            if (Files.isDirectory(file)) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (DirectoryNotEmptyException e) {
+                    // Still holds files from another input
+                }
+            } else if (!isProvided(output.relativize(file).toString())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void write(Path path, byte[] data) throws IOException {
+        // Written to the side and moved into place, so that nothing ever sees a partially written class
+        Files.createDirectories(path.getParent());
+        final Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, data);
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static Builder builder(ClassStripper.Builder stripperBuilder) {
+        return new Builder(stripperBuilder);
+    }
+
+    public static class Builder {
+        private final ClassStripper.Builder stripperBuilder;
+        private final List<Path> inputs = new ArrayList<>();
+        private final Map<String, Path> outputs = new LinkedHashMap<>();
+        private int parsingOptions = 0;
+
+        private Builder(ClassStripper.Builder stripperBuilder) {
+            this.stripperBuilder = Objects.requireNonNull(stripperBuilder, "stripperBuilder");
+        }
+
+        public Builder input(Path directory) {
+            inputs.add(directory.toAbsolutePath().normalize());
+            return this;
+        }
+
+        public Builder output(String environment, Path directory) {
+            outputs.put(Objects.requireNonNull(environment, "environment"), directory.toAbsolutePath().normalize());
+            return this;
+        }
+
+        public Builder parsingOptions(int parsingOptions) {
+            this.parsingOptions = parsingOptions;
+            return this;
+        }
+
+        public StripWatcher build() throws IOException {
+            if (inputs.isEmpty()) {
+                throw new IllegalStateException("No input directories");
+            }
+            if (outputs.isEmpty()) {
+                throw new IllegalStateException("No output directories");
+            }
+            final MultiEnvironmentConfig config = stripperBuilder.compileAll();
+            for (final String environment : outputs.keySet()) {
+                config.getConfig(environment);
+            }
+            return new StripWatcher(config, new ArrayList<>(inputs), new LinkedHashMap<>(outputs), parsingOptions);
+        }
+    }
+}
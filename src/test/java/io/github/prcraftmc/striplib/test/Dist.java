@@ -0,0 +1,5 @@
+package io.github.prcraftmc.striplib.test;
+
+public enum Dist {
+    CLIENT, DEDICATED_SERVER
+}
@@ -0,0 +1,315 @@
+package io.github.prcraftmc.striplib.test;
+
+import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.JarStripper;
+import io.github.prcraftmc.striplib.StripIndex;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JarStripperTest {
+    private static final ClassStripper.Builder FACTORY = ClassStripper.builder()
+        .annotation("client", Client.class, "stripLambdas")
+        .annotation("server", Server.class, "stripLambdas");
+
+    private static final String[] CLASSES = {
+        "io/github/prcraftmc/striplib/test/simple/Input",
+        "io/github/prcraftmc/striplib/test/entire/Input",
+        "io/github/prcraftmc/striplib/test/prescan/Input",
+        "io/github/prcraftmc/striplib/test/lambda/Input",
+    };
+    private static final byte[] RESOURCE = "not a class".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void stripJar() throws IOException {
+        final Path input = Files.createTempFile("strip-input", ".jar");
+        final Path output = Files.createTempFile("strip-output", ".jar");
+        try {
+            writeInputJar(input, CLASSES);
+            JarStripper.builder(FACTORY).build("server").strip(input, output);
+
+            final Map<String, byte[]> result = readJar(output);
+            assertEquals(
+                Arrays.asList(
+                    "META-INF/",
+                    "resource.txt",
+                    "io/github/prcraftmc/striplib/test/simple/Input.class",
+                    "io/github/prcraftmc/striplib/test/prescan/Input.class",
+                    "io/github/prcraftmc/striplib/test/lambda/Input.class"
+                ),
+                new ArrayList<>(result.keySet())
+            );
+            assertArrayEquals(RESOURCE, result.get("resource.txt"));
+            assertArrayEquals(
+                StripLibTest.read("io/github/prcraftmc/striplib/test/prescan/Input"),
+                result.get("io/github/prcraftmc/striplib/test/prescan/Input.class")
+            );
+            assertFalse(Arrays.equals(
+                StripLibTest.read("io/github/prcraftmc/striplib/test/simple/Input"),
+                result.get("io/github/prcraftmc/striplib/test/simple/Input.class")
+            ));
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    public void eliminateDeadCode() throws IOException {
+        final String pkg = "io/github/prcraftmc/striplib/test/dce/";
+        final Path input = Files.createTempFile("strip-input", ".jar");
+        final Path output = Files.createTempFile("strip-output", ".jar");
+        try {
+            writeInputJar(input, new String[] {
+                pkg + "Input", pkg + "ServerHelper", pkg + "ServerHelperDependency", pkg + "CommonHelper", pkg + "Entrypoint"
+            });
+            JarStripper.builder(FACTORY).eliminateDeadCode(true).build("client").strip(input, output);
+
+            final Map<String, byte[]> result = readJar(output);
+            assertEquals(
+                new HashSet<>(Arrays.asList(
+                    "META-INF/", "resource.txt", pkg + "Input.class", pkg + "CommonHelper.class", pkg + "Entrypoint.class"
+                )),
+                result.keySet()
+            );
+            final Set<String> methods = new HashSet<>();
+            new ClassReader(result.get(pkg + "Input.class")).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    methods.add(name);
+                    return null;
+                }
+            }, 0);
+            assertEquals(new HashSet<>(Arrays.asList("<init>", "common", "unusedHelper")), methods);
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    public void eliminateDeadCodeKeepsCycles() throws IOException {
+        // Classes that only reference each other were never referenced from stripped code, so they stay
+        final String pkg = "io/github/prcraftmc/striplib/test/cycle/";
+        final Path input = Files.createTempFile("strip-input", ".jar");
+        final Path output = Files.createTempFile("strip-output", ".jar");
+        try {
+            writeInputJar(input, new String[] {pkg + "A", pkg + "B", pkg + "C"});
+            JarStripper.builder(FACTORY).eliminateDeadCode(true).build("client").strip(input, output);
+
+            assertEquals(
+                new HashSet<>(Arrays.asList("META-INF/", "resource.txt", pkg + "A.class", pkg + "B.class", pkg + "C.class")),
+                readJar(output).keySet()
+            );
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    public void stripEnclosedClasses() throws IOException {
+        final String pkg = "io/github/prcraftmc/striplib/test/enclosed/";
+        final Path input = Files.createTempFile("strip-input", ".jar");
+        final Path output = Files.createTempFile("strip-output", ".jar");
+        try {
+            writeInputJar(input, new String[] {
+                pkg + "Input", pkg + "Input$1", pkg + "Input$1Local", pkg + "Input$1Local$1", pkg + "Input$2"
+            });
+            JarStripper.builder(FACTORY).stripEnclosedClasses(true).build("client").strip(input, output);
+
+            final Map<String, byte[]> result = readJar(output);
+            assertEquals(
+                Arrays.asList("META-INF/", "resource.txt", pkg + "Input.class", pkg + "Input$2.class"),
+                new ArrayList<>(result.keySet())
+            );
+            final Set<String> innerClasses = new HashSet<>();
+            new ClassReader(result.get(pkg + "Input.class")).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                    innerClasses.add(name);
+                }
+            }, 0);
+            assertEquals(Collections.singleton(pkg + "Input$2"), innerClasses);
+
+            // Off by default, so that jars are stripped in a single streaming pass
+            JarStripper.builder(FACTORY).build("client").strip(input, output);
+            assertEquals(7, readJar(output).size());
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    public void index() throws IOException {
+        final Path input = Files.createTempFile("strip-input", ".jar");
+        final Path output = Files.createTempFile("strip-output", ".jar");
+        final Path expected = Files.createTempFile("strip-expected", ".jar");
+        final Path index = Files.createTempFile("strip-index", ".idx");
+        try {
+            Files.delete(index);
+            writeInputJar(input, CLASSES);
+            for (final String environment : new String[] {"server", "client"}) {
+                JarStripper.builder(FACTORY).build(environment).strip(input, expected);
+                for (final boolean enclosed : new boolean[] {false, true}) {
+                    // Once to build the index, and once to use it
+                    for (int i = 0; i < 2; i++) {
+                        JarStripper.builder(FACTORY).index(index).stripEnclosedClasses(enclosed).build(environment)
+                            .strip(input, output);
+                        final Map<String, byte[]> expectedEntries = readJar(expected);
+                        final Map<String, byte[]> outputEntries = readJar(output);
+                        assertEquals(expectedEntries.keySet(), outputEntries.keySet());
+                        expectedEntries.forEach((name, data) -> assertArrayEquals(data, outputEntries.get(name), name));
+                    }
+                }
+            }
+
+            final StripIndex stripIndex = StripIndex.read(index);
+            assertTrue(stripIndex.isValidFor(input, FACTORY));
+            assertEquals(
+                new HashSet<>(Arrays.asList(
+                    "io/github/prcraftmc/striplib/test/simple/Input.class",
+                    "io/github/prcraftmc/striplib/test/entire/Input.class",
+                    "io/github/prcraftmc/striplib/test/lambda/Input.class"
+                )),
+                stripIndex.getEntries()
+            );
+            assertTrue(stripIndex.referencesLambdaMetafactory("io/github/prcraftmc/striplib/test/lambda/Input.class"));
+            assertFalse(stripIndex.referencesLambdaMetafactory("io/github/prcraftmc/striplib/test/simple/Input.class"));
+
+            writeInputJar(input, Arrays.copyOf(CLASSES, 2));
+            assertFalse(stripIndex.isValidFor(input, FACTORY));
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(expected);
+            Files.deleteIfExists(index);
+        }
+    }
+
+    @Test
+    public void stripSplit() throws IOException {
+        final Map<String, String> removed = assertSplitMatches(JarStripper.builder(FACTORY), CLASSES);
+        assertEquals("", removed.get("client"));
+        assertEquals("io/github/prcraftmc/striplib/test/entire/Input.class\n", removed.get("server"));
+    }
+
+    @Test
+    public void stripSplitEliminatesDeadCode() throws IOException {
+        // The jar is analyzed once for both environments, so each has to see its own dead code only
+        final String pkg = "io/github/prcraftmc/striplib/test/dce/";
+        final Map<String, String> removed = assertSplitMatches(
+            JarStripper.builder(FACTORY).eliminateDeadCode(true),
+            new String[] {
+                pkg + "Input", pkg + "ServerHelper", pkg + "ServerHelperDependency", pkg + "CommonHelper", pkg + "Entrypoint"
+            }
+        );
+        assertEquals(pkg + "ServerHelper.class\n" + pkg + "ServerHelperDependency.class\n", removed.get("client"));
+        assertEquals("", removed.get("server"));
+    }
+
+    /**
+     * Checks that the common jar and each delta jar together match what {@link JarStripper#strip} writes for that
+     * environment, returning the entries each delta jar lists as removed.
+     */
+    private static Map<String, String> assertSplitMatches(JarStripper.Builder builder, String[] classes) throws IOException {
+        final Path input = Files.createTempFile("strip-input", ".jar");
+        final Path common = Files.createTempFile("strip-common", ".jar");
+        final Map<String, Path> deltas = new LinkedHashMap<>();
+        final Path expected = Files.createTempFile("strip-expected", ".jar");
+        try {
+            deltas.put("client", Files.createTempFile("strip-client", ".jar"));
+            deltas.put("server", Files.createTempFile("strip-server", ".jar"));
+            writeInputJar(input, classes);
+            builder.build().stripSplit(input, common, deltas);
+
+            final Map<String, byte[]> commonEntries = readJar(common);
+            final Map<String, String> result = new HashMap<>();
+            // Entries written the same way for every environment belong in the common jar
+            Map<String, byte[]> same = null;
+            for (final Map.Entry<String, Path> delta : deltas.entrySet()) {
+                builder.build(delta.getKey()).strip(input, expected);
+                final Map<String, byte[]> expectedEntries = readJar(expected);
+                final Map<String, byte[]> deltaEntries = readJar(delta.getValue());
+                result.put(
+                    delta.getKey(), new String(deltaEntries.remove(JarStripper.REMOVED_ENTRIES), StandardCharsets.UTF_8)
+                );
+
+                final Map<String, byte[]> combined = new HashMap<>(commonEntries);
+                deltaEntries.forEach((name, data) -> assertNull(combined.put(name, data), name));
+                assertEquals(expectedEntries.keySet(), combined.keySet());
+                expectedEntries.forEach((name, data) -> assertArrayEquals(data, combined.get(name), name));
+                if (same == null) {
+                    same = new HashMap<>(expectedEntries);
+                } else {
+                    same.entrySet().removeIf(entry -> !Arrays.equals(entry.getValue(), expectedEntries.get(entry.getKey())));
+                }
+            }
+            assertEquals(same.keySet(), commonEntries.keySet());
+            return result;
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(common);
+            Files.deleteIfExists(expected);
+            for (final Path delta : deltas.values()) {
+                Files.deleteIfExists(delta);
+            }
+        }
+    }
+
+    private static void writeInputJar(Path path, String[] classes) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(path))) {
+            out.putNextEntry(new ZipEntry("META-INF/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("resource.txt"));
+            out.write(RESOURCE);
+            out.closeEntry();
+            for (final String className : classes) {
+                out.putNextEntry(new ZipEntry(className + ".class"));
+                out.write(StripLibTest.read(className));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static Map<String, byte[]> readJar(Path path) throws IOException {
+        final Map<String, byte[]> result = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                try (InputStream is = zip.getInputStream(entry)) {
+                    final ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    copy(is, data);
+                    result.put(entry.getName(), data.toByteArray());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        final byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            os.write(buf, 0, n);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.prcraftmc.striplib.test;
+
+import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.CompiledStripConfig;
+import io.github.prcraftmc.striplib.StripData;
+import io.github.prcraftmc.striplib.StripDataCache;
+import io.github.prcraftmc.striplib.StripStatistics;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripDataCacheTest {
+    private static final ClassStripper.Builder FACTORY = ClassStripper.builder()
+        .annotation("client", Client.class, "stripLambdas")
+        .annotation("server", Server.class, "stripLambdas");
+
+    @Test
+    public void memoryAndDisk() throws IOException {
+        final Path directory = Files.createTempDirectory("strip-cache");
+        try {
+            final CompiledStripConfig config = FACTORY.compile("client");
+            final byte[] input = StripLibTest.read("io/github/prcraftmc/striplib/test/lambda/Input");
+            final StripData expected = config.calcStripData(new ClassReader(input), 0);
+
+            final StripDataCache cache = StripDataCache.builder().directory(directory).build();
+            final StripData first = cache.calcStripData(config, input, 0);
+            assertSame(first, cache.calcStripData(config, input, 0));
+            assertEquals(expected.getMethods(), first.getMethods());
+
+            final StripData fromDisk = StripDataCache.builder()
+                .directory(directory)
+                .build()
+                .calcStripData(config, input, 0);
+            assertNotSame(first, fromDisk);
+            assertEquals(expected.stripEntireClass(), fromDisk.stripEntireClass());
+            assertEquals(expected.getMethods(), fromDisk.getMethods());
+            assertEquals(expected.getFields(), fromDisk.getFields());
+            assertEquals(expected.getInterfaces(), fromDisk.getInterfaces());
+
+            final StripData otherEnvironment = cache.calcStripData(FACTORY.compile("server"), input, 0);
+            assertNotEquals(first.getMethods(), otherEnvironment.getMethods());
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void statistics() {
+        // Hits still count as scanned, so the totals add up with the bytes written
+        final StripStatistics statistics = new StripStatistics();
+        final CompiledStripConfig config = ClassStripper.builder()
+            .annotation("client", Client.class, "stripLambdas")
+            .annotation("server", Server.class, "stripLambdas")
+            .listener(statistics)
+            .compile("client");
+        final byte[] input = StripLibTest.read("io/github/prcraftmc/striplib/test/lambda/Input");
+        final StripDataCache cache = StripDataCache.builder().build();
+        cache.strip(config, input, 0);
+        cache.strip(config, input, 0);
+
+        assertEquals(2, statistics.getClassesScanned());
+        assertEquals(2, statistics.getClassesModified());
+        assertEquals(1, statistics.getPasses());
+        assertEquals(2L * input.length, statistics.getBytesIn());
+    }
+
+    @Test
+    public void interfaceImplementations() {
+        // Which methods only implement a stripped interface depends on the supertypes, so a change to them alone must
+        // still be seen
+        final String handler = "io/github/prcraftmc/striplib/test/implementation/Handler";
+        final byte[] input = StripLibTest.read("io/github/prcraftmc/striplib/test/implementation/Input");
+        final ClassLoader loader = StripDataCacheTest.class.getClassLoader();
+        final StripDataCache cache = StripDataCache.builder().build();
+
+        final StripData missing = cache.calcStripData(compile(new ClassLoader(loader) {
+            @Override
+            public InputStream getResourceAsStream(String name) {
+                return name.equals(handler + ".class") ? null : super.getResourceAsStream(name);
+            }
+        }), input, 0);
+        final StripData found = cache.calcStripData(compile(loader), input, 0);
+        assertFalse(found.getMethods().stream().allMatch(method -> method.getName().startsWith("lambda$")));
+        assertNotEquals(missing.getMethods(), found.getMethods());
+    }
+
+    private static CompiledStripConfig compile(ClassLoader classes) {
+        return ClassStripper.builder()
+            .annotation("client", Client.class)
+            .annotation("server", Server.class)
+            .stripInterfaceImplementations(classes)
+            .compile("client");
+    }
+}
@@ -1,15 +1,38 @@
 package io.github.prcraftmc.striplib.test;
 
 import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.CompiledStripConfig;
+import io.github.prcraftmc.striplib.MultiEnvironmentConfig;
+import io.github.prcraftmc.striplib.StripData;
+import io.github.prcraftmc.striplib.StripStatistics;
 import org.junit.jupiter.api.Test;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypeReference;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.TypeAnnotationNode;
 import org.objectweb.asm.util.TraceClassVisitor;
 
 import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,16 +51,208 @@ public class StripLibTest {
         performTest("lambda", true, false);
     }
 
+    @Test
+    public void lambdaSinglePass() {
+        final ClassReader reader = new ClassReader(read("io/github/prcraftmc/striplib/test/lambda/Input"));
+        final int[] passes = new int[1];
+        final StripData data = FACTORY.build("client").calcStripData(v -> {
+            passes[0]++;
+            reader.accept(v, 0);
+        });
+        assertEquals(1, passes[0]);
+        assertEquals(3, data.getMethods().size());
+    }
+
     @Test
     public void field() {
         performTest("field", true, true);
     }
 
+    @Test
+    public void fieldMembers() {
+        final StripData data = FACTORY.build("server")
+            .calcStripData(new ClassReader(read("io/github/prcraftmc/striplib/test/field/Input")), 0);
+        assertEquals(Collections.singleton(new StripData.Member("field3", Type.getType(String.class))), data.getFields());
+    }
+
     @Test
     public void fieldInit() {
         performTest("fieldinit", true, false);
     }
 
+    @Test
+    public void eliminateFieldInitializers() throws ReflectiveOperationException {
+        final byte[] stripped = ClassStripper.builder()
+            .annotation("server", Server.class)
+            .outputOptions(StripData.ELIMINATE_FIELD_INITIALIZERS)
+            .compile("client")
+            .strip(read("io/github/prcraftmc/striplib/test/fieldelim/Input"), 0);
+        final StringWriter output = new StringWriter();
+        new ClassReader(stripped).accept(new TraceClassVisitor(new PrintWriter(output)), 0);
+        final String text = output.toString();
+        assertFalse(text.contains("NEWARRAY"), text);
+        assertFalse(text.contains("java/util/ArrayList"), text);
+        assertFalse(text.contains("Integer.valueOf"), text);
+        assertFalse(text.contains("PUTFIELD io/github/prcraftmc/striplib/test/fieldelim/Input.objectField"), text);
+        // Calls that may have side effects are kept, with their results discarded
+        assertTrue(text.contains("INVOKESTATIC io/github/prcraftmc/striplib/test/fieldelim/Input.compute"), text);
+        assertTrue(text.contains("PUTFIELD io/github/prcraftmc/striplib/test/fieldelim/Input.keptField"), text);
+
+        final Class<?> loaded = new ClassLoader(null) {
+            Class<?> define() {
+                return defineClass(null, stripped, 0, stripped.length);
+            }
+        }.define();
+        assertEquals(1L << 40, loaded.getField("keptField").getLong(loaded.getConstructor().newInstance()));
+    }
+
+    @Test
+    public void fieldLambdas() throws ReflectiveOperationException {
+        final byte[] stripped = FACTORY.compile("client")
+            .strip(read("io/github/prcraftmc/striplib/test/fieldlambda/Input"), 0);
+        final Class<?> loaded = define(stripped);
+        assertEquals("kept", ((Supplier<?>)loaded.getField("keptField").get(loaded.getConstructor().newInstance())).get());
+        // Only the lambdas of the kept field, and of the field stripped with stripLambdas = false, are left
+        assertEquals(2, Arrays.stream(loaded.getDeclaredMethods()).filter(Method::isSynthetic).count());
+    }
+
+    @Test
+    public void interfaceImplementations() throws ReflectiveOperationException {
+        final byte[] input = read("io/github/prcraftmc/striplib/test/implementation/Input");
+        final ClassStripper.Builder builder = ClassStripper.builder()
+            .annotation("client", Client.class)
+            .annotation("server", Server.class);
+        // Only the interface itself is stripped unless asked for
+        assertTrue(builder.compile("client").calcStripData(new ClassReader(input), 0).getMethods().isEmpty());
+
+        builder.stripInterfaceImplementations(StripLibTest.class.getClassLoader());
+        final StripData data = builder.compile("client").calcStripData(new ClassReader(input), 0);
+        assertEquals(
+            new HashSet<>(Arrays.asList(
+                "handle(Ljava/lang/String;)V", "handle(Ljava/lang/Object;)V", "accepts(Ljava/lang/Object;)Z"
+            )),
+            data.getMethods()
+                .stream()
+                .filter(method -> !method.getName().startsWith("lambda$"))
+                .map(method -> method.getName() + method.getDescriptor())
+                .collect(Collectors.toSet())
+        );
+        assertEquals(data.getMethods(), builder.compileAll().calcStripData(new ClassReader(input), 0).get("client").getMethods());
+
+        // The methods of the kept interface stay, including the one both interfaces declare
+        final Class<?> loaded = define(builder.compile("client").strip(input, 0));
+        final Object instance = loaded.getConstructor().newInstance();
+        assertEquals("input", loaded.getMethod("describe").invoke(instance));
+        loaded.getMethod("tick").invoke(instance);
+        assertEquals(1, loaded.getField("ticks").getInt(instance));
+        assertEquals(0, Arrays.stream(loaded.getDeclaredMethods()).filter(Method::isSynthetic).count());
+        assertEquals(0, Arrays.stream(loaded.getDeclaredMethods()).filter(m -> m.getName().equals("handle")).count());
+        assertEquals(1, Arrays.stream(loaded.getDeclaredMethods()).filter(m -> m.getName().equals("accepts")).count());
+    }
+
+    @Test
+    public void analysisParsingOptions() {
+        // The analysis reads the code it needs for lambdas, whatever the caller's options
+        final ClassReader reader = new ClassReader(read("io/github/prcraftmc/striplib/test/lambda/Input"));
+        final StripData data = FACTORY.compile("client").calcStripData(reader, ClassReader.SKIP_CODE);
+        assertEquals(FACTORY.compile("client").calcStripData(reader, 0).getMethods(), data.getMethods());
+        assertTrue(data.getMethods().size() > 1, data.getMethods().toString());
+    }
+
+    @Test
+    public void foldEnvironmentConstants() throws ReflectiveOperationException {
+        final Type platform = Type.getObjectType("io/github/prcraftmc/striplib/test/fold/Platform");
+        final Map<String, byte[]> stripped = ClassStripper.builder()
+            .annotation("client", Client.class)
+            .annotation("server", Server.class)
+            .environmentConstant("client", platform, "isClient", "()Z", true)
+            .environmentConstant("client", platform, "SIDE", "I", 0)
+            .environmentConstant("server", platform, "isClient", "()Z", false)
+            .environmentConstant("server", platform, "SIDE", "I", 1)
+            .stripForAllEnvironments(read("io/github/prcraftmc/striplib/test/fold/Input"), 0);
+
+        final Class<?> client = define(stripped.get("client"));
+        assertEquals("client", client.getMethod("describe").invoke(null));
+        assertEquals("client", ((Supplier<?>)client.getMethod("supplier").invoke(null)).get());
+        assertEquals(10, client.getMethod("side").invoke(null));
+        assertEquals(-3, client.getMethod("guarded", String.class).invoke(null, "x"));
+
+        final Class<?> server = define(stripped.get("server"));
+        assertEquals("server", server.getMethod("describe").invoke(null));
+        assertEquals("server", ((Supplier<?>)server.getMethod("supplier").invoke(null)).get());
+        assertEquals(20, server.getMethod("side").invoke(null));
+        // Method references are only dropped from the folded code, not the methods they name
+        server.getMethod("direct").invoke(null);
+        assertNotNull(server.getMethod("helper"));
+        assertEquals(3, server.getMethod("guarded", String.class).invoke(null, "x"));
+
+        for (final byte[] classFile : stripped.values()) {
+            final StringWriter output = new StringWriter();
+            new ClassReader(classFile).accept(new TraceClassVisitor(new PrintWriter(output)), 0);
+            final String text = output.toString();
+            assertFalse(text.contains(platform.getInternalName()), text);
+            // Only the lambda that's still used is kept
+            assertEquals(1, text.split("lambda\\$supplier\\$\\d+\\(\\)", -1).length - 2, text);
+        }
+        final StringWriter output = new StringWriter();
+        new ClassReader(stripped.get("server")).accept(new TraceClassVisitor(new PrintWriter(output)), 0);
+        assertFalse(output.toString().contains("NumberFormatException"), output.toString());
+    }
+
+    private static Class<?> define(byte[] classFile) {
+        return new ClassLoader(StripLibTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(null, classFile, 0, classFile.length);
+            }
+        }.define();
+    }
+
+    @Test
+    public void minimizeOutput() {
+        final byte[] input = read("io/github/prcraftmc/striplib/test/simple/Input");
+        final ClassStripper.Builder builder = ClassStripper.builder()
+            .annotation("client", Client.class, "stripLambdas")
+            .annotation("server", Server.class, "stripLambdas");
+        final byte[] copied = builder.outputOptions(StripData.REMOVE_STRIP_ANNOTATIONS).compile("client").strip(input, 0);
+        final byte[] compacted = builder.outputOptions(StripData.REMOVE_STRIP_ANNOTATIONS | StripData.COMPACT_CONSTANT_POOL)
+            .compile("client")
+            .strip(input, 0);
+
+        final StringWriter output = new StringWriter();
+        new ClassReader(compacted).accept(new TraceClassVisitor(new PrintWriter(output)), 0);
+        assertTrue(output.toString().contains("method1"));
+        assertFalse(output.toString().contains("method2"));
+        for (final String text : new String[] {Type.getDescriptor(Client.class), Type.getDescriptor(Server.class), "method2"}) {
+            assertTrue(new String(copied, StandardCharsets.ISO_8859_1).contains(text));
+            assertFalse(new String(compacted, StandardCharsets.ISO_8859_1).contains(text));
+        }
+        assertTrue(compacted.length < copied.length);
+    }
+
+    @Test
+    public void removeAnnotationsOnlyFromAnnotated() {
+        final CompiledStripConfig config = ClassStripper.builder()
+            .annotation("client", Client.class, "stripLambdas")
+            .annotation("server", Server.class, "stripLambdas")
+            .outputOptions(StripData.REMOVE_STRIP_ANNOTATIONS)
+            .compile("client");
+        final StripData data = config.calcStripData(
+            new ClassReader(read("io/github/prcraftmc/striplib/test/simple/Input")), 0
+        );
+        final MethodVisitor writerVisitor = new MethodVisitor(Opcodes.ASM9) {
+        };
+        final ClassVisitor visitor = data.visitor(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return writerVisitor;
+            }
+        }, StripData.REMOVE_STRIP_ANNOTATIONS);
+        visitor.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "io/github/prcraftmc/striplib/test/simple/Input", null, "java/lang/Object", null);
+        // Methods without strip annotations go straight to the output, so that it can copy them as-is
+        assertSame(writerVisitor, visitor.visitMethod(Opcodes.ACC_PUBLIC, "method3", "()V", null, null));
+        assertNotSame(writerVisitor, visitor.visitMethod(Opcodes.ACC_PUBLIC, "method1", "()V", null, null));
+    }
+
     @Test
     public void entire() {
         assertTrue(FACTORY.build("server")
@@ -46,6 +261,181 @@ public class StripLibTest {
         );
     }
 
+    @Test
+    public void annotationValues() {
+        final ClassStripper.Builder builder = ClassStripper.builder()
+            .annotation("client", OnlyIn.class, "value", Dist.CLIENT)
+            .annotation("server", OnlyIn.class, "value", Dist.DEDICATED_SERVER);
+        final Map<String, StripData> data = builder.calcStripDataForAllEnvironments(
+            new ClassReader(read("io/github/prcraftmc/striplib/test/value/Input")), 0
+        );
+
+        // Annotations strip in the environments they're not for
+        final StripData client = data.get("client");
+        assertEquals(Collections.singleton(new StripData.Member("serverField", "I")), client.getFields());
+        assertEquals(Collections.singleton(new StripData.Member("serverMethod", "()V")), client.getMethods());
+
+        final StripData server = data.get("server");
+        assertEquals(Collections.singleton(new StripData.Member("clientField", "I")), server.getFields());
+        assertTrue(server.getMethods().contains(new StripData.Member("clientMethod", "()V")));
+        assertEquals(2, server.getMethods().size(), server.getMethods().toString());
+
+        assertEquals(
+            client.getMethods(),
+            builder.compile("client").calcStripData(new ClassReader(read("io/github/prcraftmc/striplib/test/value/Input")), 0).getMethods()
+        );
+
+        // Each environment keeps the annotation on the interface it keeps, which moves to its new position
+        assertEquals(Collections.singleton("java/io/Serializable"), client.getInterfaces());
+        final ClassNode clientClass = new ClassNode();
+        new ClassReader(builder.compile("client").strip(read("io/github/prcraftmc/striplib/test/value/Input"), 0))
+            .accept(clientClass, 0);
+        assertEquals(Collections.singletonList("java/lang/Runnable"), clientClass.interfaces);
+        assertEquals(1, clientClass.invisibleTypeAnnotations.size());
+        final TypeAnnotationNode kept = clientClass.invisibleTypeAnnotations.get(0);
+        assertEquals(Type.getDescriptor(OnlyIn.class), kept.desc);
+        assertEquals(0, new TypeReference(kept.typeRef).getSuperTypeIndex());
+
+        final StripData console = ClassStripper.builder()
+            .annotation("console", Type.getType(OnlyIn.class), "reason", "console")
+            .compile("other")
+            .calcStripData(new ClassReader(read("io/github/prcraftmc/striplib/test/value/Input")), 0);
+        assertEquals(Collections.singleton(new StripData.Member("serverField", "I")), console.getFields());
+        assertEquals(Collections.singleton(new StripData.Member("serverMethod", "()V")), console.getMethods());
+    }
+
+    @Test
+    public void prescan() {
+        final ClassReader unannotated = new ClassReader(read("io/github/prcraftmc/striplib/test/prescan/Input"));
+        final ClassStripper stripper = FACTORY.build("server");
+        assertFalse(stripper.mayNeedStripping(unannotated));
+        assertTrue(stripper.calcStripData(unannotated, 0).isEmpty());
+
+        final ClassReader annotated = new ClassReader(read("io/github/prcraftmc/striplib/test/simple/Input"));
+        assertTrue(FACTORY.build("server").mayNeedStripping(annotated));
+    }
+
+    @Test
+    public void stripBytes() {
+        final byte[] unannotated = read("io/github/prcraftmc/striplib/test/prescan/Input");
+        assertSame(unannotated, FACTORY.build("server").strip(unannotated, 0));
+
+        assertNull(FACTORY.build("server").strip(read("io/github/prcraftmc/striplib/test/entire/Input"), 0));
+
+        final ClassReader reader = new ClassReader(read("io/github/prcraftmc/striplib/test/simple/Input"));
+        final StringWriter viaVisitor = new StringWriter();
+        FACTORY.build("server").strip(reader, 0, new TraceClassVisitor(new PrintWriter(viaVisitor)));
+        final StringWriter viaBytes = new StringWriter();
+        new ClassReader(FACTORY.build("server").strip(read("io/github/prcraftmc/striplib/test/simple/Input"), 0))
+            .accept(new TraceClassVisitor(new PrintWriter(viaBytes)), 0);
+        assertEquals(viaVisitor.toString(), viaBytes.toString());
+    }
+
+    @Test
+    public void byteBuffers() throws IOException {
+        final CompiledStripConfig config = FACTORY.compile("server");
+        for (final String name : new String[] {"simple", "prescan", "entire"}) {
+            final byte[] input = read("io/github/prcraftmc/striplib/test/" + name + "/Input");
+            final byte[] expected = config.strip(input, 0);
+
+            final byte[] padded = new byte[input.length + 16];
+            System.arraycopy(input, 0, padded, 7, input.length);
+            final ByteBuffer direct = ByteBuffer.allocateDirect(input.length);
+            direct.put(input).flip();
+            for (final ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.wrap(padded, 7, input.length), direct}) {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                final int written = config.strip(buffer, 0, Channels.newChannel(output));
+                if (expected == null) {
+                    assertEquals(-1, written);
+                    assertEquals(0, output.size());
+                } else {
+                    assertEquals(expected.length, written);
+                    assertArrayEquals(expected, output.toByteArray());
+                }
+                assertEquals(input.length, buffer.remaining());
+            }
+        }
+
+        final Path file = Files.createTempFile("strip-input", ".class");
+        try {
+            Files.write(file, read("io/github/prcraftmc/striplib/test/simple/Input"));
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (FileChannel channel = FileChannel.open(file)) {
+                config.strip(channel, 0, Channels.newChannel(output));
+            }
+            assertArrayEquals(config.strip(read("io/github/prcraftmc/striplib/test/simple/Input"), 0), output.toByteArray());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void compiledConfig() {
+        final CompiledStripConfig config = FACTORY.compile("server");
+        final byte[] input = read("io/github/prcraftmc/striplib/test/simple/Input");
+        final byte[] expected = FACTORY.build("server").strip(input, 0);
+        IntStream.range(0, 64).parallel().forEach(i -> assertArrayEquals(expected, config.strip(input, 0)));
+    }
+
+    @Test
+    public void allEnvironments() {
+        for (final String name : new String[] {"simple", "lambda", "field", "fieldinit", "entire", "prescan"}) {
+            final byte[] input = read("io/github/prcraftmc/striplib/test/" + name + "/Input");
+            final Map<String, byte[]> result = FACTORY.stripForAllEnvironments(input, 0);
+            assertEquals(FACTORY.getEnvironments(), result.keySet());
+            for (final String env : FACTORY.getEnvironments()) {
+                final byte[] expected = FACTORY.build(env).strip(input, 0);
+                if (expected == null) {
+                    assertNull(result.get(env));
+                } else {
+                    assertArrayEquals(expected, result.get(env));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compiledConfigsAreReused() {
+        final ClassStripper.Builder builder = ClassStripper.builder()
+            .annotation("client", Client.class)
+            .annotation("server", Server.class);
+        final CompiledStripConfig client = builder.compile("client");
+        assertSame(client, builder.compile("client"));
+        assertSame(builder.compileAll(), builder.compileAll());
+
+        // Changing the builder recompiles
+        final MultiEnvironmentConfig all = builder.compileAll();
+        builder.environmentConstant("client", Type.getObjectType("pkg/Platform"), "CLIENT", "Z", true);
+        assertNotSame(client, builder.compile("client"));
+        assertNotSame(all, builder.compileAll());
+        assertNotEquals(client.getFingerprint(), builder.compile("client").getFingerprint());
+    }
+
+    @Test
+    public void statistics() {
+        final StripStatistics statistics = new StripStatistics();
+        final ClassStripper.Builder builder = ClassStripper.builder()
+            .annotation("client", Client.class, "stripLambdas")
+            .annotation("server", Server.class, "stripLambdas")
+            .listener(statistics);
+        final CompiledStripConfig config = builder.compile("server");
+        final byte[] unannotated = read("io/github/prcraftmc/striplib/test/prescan/Input");
+        final byte[] simple = read("io/github/prcraftmc/striplib/test/simple/Input");
+        final byte[] entire = read("io/github/prcraftmc/striplib/test/entire/Input");
+        config.strip(unannotated, 0);
+        final byte[] stripped = config.strip(simple, 0);
+        config.strip(entire, 0);
+
+        assertEquals(3, statistics.getClassesScanned());
+        assertEquals(1, statistics.getClassesUntouched());
+        assertEquals(1, statistics.getClassesModified());
+        assertEquals(1, statistics.getClassesRemoved());
+        assertEquals(2, statistics.getPasses());
+        assertEquals(unannotated.length + simple.length + entire.length, statistics.getBytesIn());
+        assertEquals(unannotated.length + stripped.length, statistics.getBytesOut());
+        assertTrue(statistics.getMethodsStripped() > 0);
+    }
+
     private void performTest(String name, boolean client, boolean server) {
         final String packagePath = "io/github/prcraftmc/striplib/test/" + name + '/';
         final ClassReader reader = new ClassReader(read(packagePath + "Input"));
@@ -84,7 +474,7 @@ public class StripLibTest {
         return result.toString();
     }
 
-    private byte[] read(String path) {
+    static byte[] read(String path) {
         final ByteArrayOutputStream result = new ByteArrayOutputStream();
         try (InputStream is = StripLibTest.class.getResourceAsStream('/' + path + ".class")) {
             assertNotNull(is, "Class file for " + path + " is missing");
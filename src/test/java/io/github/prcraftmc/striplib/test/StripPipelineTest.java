@@ -0,0 +1,79 @@
+package io.github.prcraftmc.striplib.test;
+
+import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.CompiledStripConfig;
+import io.github.prcraftmc.striplib.StripPipeline;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripPipelineTest {
+    private static final CompiledStripConfig CONFIG = ClassStripper.builder()
+        .annotation("client", Client.class, "stripLambdas")
+        .annotation("server", Server.class, "stripLambdas")
+        .compile("server");
+
+    @Test
+    public void orderedWithBackpressure() throws InterruptedException {
+        final byte[][] inputs = {
+            StripLibTest.read("io/github/prcraftmc/striplib/test/simple/Input"),
+            StripLibTest.read("io/github/prcraftmc/striplib/test/entire/Input"),
+            StripLibTest.read("io/github/prcraftmc/striplib/test/prescan/Input")
+        };
+        final StripPipeline.Status[] expected = new StripPipeline.Status[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            final byte[] stripped = CONFIG.strip(inputs[i], 0);
+            expected[i] = stripped == null
+                ? StripPipeline.Status.REMOVED
+                : stripped == inputs[i] ? StripPipeline.Status.UNCHANGED : StripPipeline.Status.STRIPPED;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<StripPipeline.Result> results = new ArrayList<>();
+            final AtomicInteger delivered = new AtomicInteger();
+            final StripPipeline pipeline = StripPipeline.builder(CONFIG).executor(executor).maxInFlight(3).build(result -> {
+                if (delivered.get() % 7 == 0) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                results.add(result);
+                delivered.incrementAndGet();
+            });
+            for (int i = 0; i < 100; i++) {
+                pipeline.submit(Integer.toString(i), inputs[i % inputs.length]);
+                assertTrue(i + 1 - delivered.get() <= 3, "Too many classes in flight");
+            }
+            pipeline.awaitCompletion();
+            assertEquals(100, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(Integer.toString(i), results.get(i).getName());
+                assertEquals(expected[i % inputs.length], results.get(i).getStatus());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failure() {
+        final List<StripPipeline.Result> results = new ArrayList<>();
+        final StripPipeline pipeline = StripPipeline.builder(CONFIG).executor(Runnable::run).build(results::add);
+        assertThrows(IllegalStateException.class, () -> {
+            pipeline.submit("valid", StripLibTest.read("io/github/prcraftmc/striplib/test/simple/Input"));
+            pipeline.submit("invalid", new byte[] {1, 2, 3});
+            pipeline.awaitCompletion();
+        });
+        assertEquals(1, results.size());
+        assertThrows(IllegalStateException.class, () -> pipeline.submit("after", new byte[0]));
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.prcraftmc.striplib.test;
+
+import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.StripData;
+import io.github.prcraftmc.striplib.StripListener;
+import io.github.prcraftmc.striplib.StripTransformer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripTransformerTest {
+    private static final ClassStripper.Builder FACTORY = ClassStripper.builder()
+        .annotation("client", Client.class, "stripLambdas")
+        .annotation("server", Server.class, "stripLambdas");
+
+    @Test
+    public void transform() {
+        final List<String> analyzed = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        final StripTransformer transformer = new StripTransformer(ClassStripper.builder()
+            .annotation("client", Client.class, "stripLambdas")
+            .annotation("server", Server.class, "stripLambdas")
+            .listener(new StripListener() {
+                @Override
+                public void classAnalyzed(String className, String environment, StripData result, int passes, long nanos) {
+                    analyzed.add(className);
+                }
+
+                @Override
+                public void classFailed(String className, String environment, Throwable error) {
+                    failed.add(className);
+                }
+            })
+            .compile("server"));
+
+        final String unannotated = "io/github/prcraftmc/striplib/test/prescan/Input";
+        assertNull(transformer.transform(null, unannotated, null, null, StripLibTest.read(unannotated)));
+
+        final String simple = "io/github/prcraftmc/striplib/test/simple/Input";
+        final byte[] input = StripLibTest.read(simple);
+        assertArrayEquals(FACTORY.build("server").strip(input, 0), transformer.transform(null, simple, null, null, input));
+
+        final String entire = "io/github/prcraftmc/striplib/test/entire/Input";
+        final byte[] stub = transformer.transform(null, entire, null, null, StripLibTest.read(entire));
+        assertNotNull(stub);
+        final Class<?> stubClass = new ClassLoader(null) {
+            Class<?> define() {
+                return defineClass(null, stub, 0, stub.length);
+            }
+        }.define();
+        assertEquals(entire.replace('/', '.'), stubClass.getName());
+        assertThrows(NoClassDefFoundError.class, () -> Class.forName(stubClass.getName(), true, stubClass.getClassLoader()));
+
+        // Classes that the prescan rules out never reach the listener
+        assertEquals(Arrays.asList(simple, entire), analyzed);
+
+        assertNull(transformer.transform(null, "broken/Class", null, null, new byte[] {1, 2, 3}));
+        assertEquals(Collections.singletonList("broken/Class"), failed);
+    }
+}
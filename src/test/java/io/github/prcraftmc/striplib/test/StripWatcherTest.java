@@ -0,0 +1,163 @@
+package io.github.prcraftmc.striplib.test;
+
+import io.github.prcraftmc.striplib.ClassStripper;
+import io.github.prcraftmc.striplib.StripListener;
+import io.github.prcraftmc.striplib.StripWatcher;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripWatcherTest {
+    private static final ClassStripper.Builder FACTORY = ClassStripper.builder()
+        .annotation("client", Client.class, "stripLambdas")
+        .annotation("server", Server.class, "stripLambdas");
+
+    @Test
+    public void watch() throws Exception {
+        final Path root = Files.createTempDirectory("strip-watch");
+        final Path input = root.resolve("input");
+        final Path client = root.resolve("client");
+        final Path server = root.resolve("server");
+        try {
+            final Path simple = input.resolve("pkg/Simple.class");
+            Files.createDirectories(simple.getParent());
+            Files.write(simple, StripLibTest.read("io/github/prcraftmc/striplib/test/simple/Input"));
+            Files.createDirectories(server.resolve("pkg"));
+            Files.write(server.resolve("pkg/Stale.class"), new byte[0]);
+
+            final StripWatcher watcher = StripWatcher.builder(FACTORY).input(input).output("client", client).output("server", server).build();
+            try {
+                watcher.syncAll();
+                assertArrayEquals(FACTORY.build("client").strip(Files.readAllBytes(simple), 0), Files.readAllBytes(client.resolve("pkg/Simple.class")));
+                assertArrayEquals(FACTORY.build("server").strip(Files.readAllBytes(simple), 0), Files.readAllBytes(server.resolve("pkg/Simple.class")));
+                assertFalse(Files.exists(server.resolve("pkg/Stale.class")));
+
+                final Thread thread = new Thread(() -> {
+                    try {
+                        watcher.run();
+                    } catch (IOException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                thread.start();
+
+                Files.createDirectories(input.resolve("pkg/sub"));
+                Files.write(input.resolve("pkg/sub/Entire.class"), StripLibTest.read("io/github/prcraftmc/striplib/test/entire/Input"));
+                awaitTrue(() -> Files.exists(client.resolve("pkg/sub/Entire.class")));
+                assertFalse(Files.exists(server.resolve("pkg/sub/Entire.class")));
+
+                Files.write(simple, StripLibTest.read("io/github/prcraftmc/striplib/test/entire/Input"));
+                awaitTrue(() -> !Files.exists(server.resolve("pkg/Simple.class")));
+
+                Files.delete(simple);
+                awaitTrue(() -> !Files.exists(client.resolve("pkg/Simple.class")));
+
+                // Closing stops the watch loop
+                watcher.close();
+                thread.join(10_000);
+                assertFalse(thread.isAlive());
+            } finally {
+                watcher.close();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void deleteSharedDirectory() throws Exception {
+        // Deleting a package from the classes mustn't take its resources with it
+        final Path root = Files.createTempDirectory("strip-watch");
+        final Path classes = root.resolve("classes");
+        final Path resources = root.resolve("resources");
+        final Path client = root.resolve("client");
+        try {
+            Files.createDirectories(classes.resolve("pkg"));
+            Files.write(classes.resolve("pkg/Simple.class"), StripLibTest.read("io/github/prcraftmc/striplib/test/simple/Input"));
+            Files.createDirectories(resources.resolve("pkg"));
+            Files.write(resources.resolve("pkg/resource.txt"), new byte[] {1, 2, 3});
+
+            final StripWatcher watcher = StripWatcher.builder(FACTORY).input(classes).input(resources).output("client", client).build();
+            try {
+                watcher.syncAll();
+                assertTrue(Files.exists(client.resolve("pkg/Simple.class")));
+                assertTrue(Files.exists(client.resolve("pkg/resource.txt")));
+                final Thread thread = new Thread(() -> {
+                    try {
+                        watcher.run();
+                    } catch (IOException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                thread.start();
+
+                Files.delete(classes.resolve("pkg/Simple.class"));
+                Files.delete(classes.resolve("pkg"));
+                awaitTrue(() -> !Files.exists(client.resolve("pkg/Simple.class")));
+                Thread.sleep(200);
+                assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(client.resolve("pkg/resource.txt")));
+
+                watcher.close();
+                thread.join(10_000);
+                assertFalse(thread.isAlive());
+            } finally {
+                watcher.close();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void failure() throws Exception {
+        final Path root = Files.createTempDirectory("strip-watch");
+        final Path input = root.resolve("input");
+        final Path client = root.resolve("client");
+        try {
+            final Path broken = input.resolve("pkg/Broken.class");
+            Files.createDirectories(broken.getParent());
+            Files.write(broken, new byte[] {1, 2, 3});
+            Files.createDirectories(client.resolve("pkg"));
+            Files.write(client.resolve("pkg/Broken.class"), new byte[0]);
+
+            final List<String> failed = new ArrayList<>();
+            final ClassStripper.Builder builder = ClassStripper.builder()
+                .annotation("client", Client.class)
+                .annotation("server", Server.class)
+                .listener(new StripListener() {
+                    @Override
+                    public void classFailed(String className, String environment, Throwable error) {
+                        failed.add(environment + ':' + className);
+                    }
+                });
+            try (StripWatcher watcher = StripWatcher.builder(builder).input(input).output("client", client).build()) {
+                watcher.syncAll();
+            }
+            assertEquals(Collections.singletonList("client:pkg/Broken"), failed);
+            assertFalse(Files.exists(client.resolve("pkg/Broken.class")));
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package io.github.prcraftmc.striplib.test.cycle;
+
+public class A {
+    public B b;
+}
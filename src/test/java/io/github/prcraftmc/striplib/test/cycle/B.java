@@ -0,0 +1,5 @@
+package io.github.prcraftmc.striplib.test.cycle;
+
+public class B {
+    public A a;
+}
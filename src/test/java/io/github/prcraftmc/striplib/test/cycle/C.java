@@ -0,0 +1,4 @@
+package io.github.prcraftmc.striplib.test.cycle;
+
+public class C {
+}
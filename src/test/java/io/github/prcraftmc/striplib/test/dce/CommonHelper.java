@@ -0,0 +1,4 @@
+package io.github.prcraftmc.striplib.test.dce;
+
+public class CommonHelper {
+}
@@ -0,0 +1,7 @@
+package io.github.prcraftmc.striplib.test.dce;
+
+public class Entrypoint {
+    public static void main(String[] args) {
+        new Input().common();
+    }
+}
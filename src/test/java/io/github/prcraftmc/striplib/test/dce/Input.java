@@ -0,0 +1,21 @@
+package io.github.prcraftmc.striplib.test.dce;
+
+import io.github.prcraftmc.striplib.test.Server;
+
+public class Input {
+    @Server
+    public void serverOnly() {
+        privateHelper();
+        ServerHelper.help();
+    }
+
+    public void common() {
+        new CommonHelper();
+    }
+
+    private void privateHelper() {
+    }
+
+    private void unusedHelper() {
+    }
+}
@@ -0,0 +1,7 @@
+package io.github.prcraftmc.striplib.test.dce;
+
+public class ServerHelper {
+    public static void help() {
+        new ServerHelperDependency();
+    }
+}
@@ -0,0 +1,5 @@
+package io.github.prcraftmc.striplib.test.dce;
+
+public class ServerHelperDependency {
+    ServerHelper helper;
+}
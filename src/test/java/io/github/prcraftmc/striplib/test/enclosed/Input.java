@@ -0,0 +1,30 @@
+package io.github.prcraftmc.striplib.test.enclosed;
+
+import io.github.prcraftmc.striplib.test.Server;
+
+public class Input {
+    @Server
+    public Runnable serverOnly() {
+        class Local implements Runnable {
+            @Override
+            public void run() {
+                new Object() {
+                };
+            }
+        }
+        new Local().run();
+        return new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    public Runnable common() {
+        return new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.prcraftmc.striplib.test.fieldelim;
+
+import io.github.prcraftmc.striplib.test.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Input {
+    @Server
+    public static final Integer STATIC_FIELD = 5;
+
+    @Server
+    public Object objectField = new Object();
+    @Server
+    public int[] arrayField = {1, 2, 3};
+    @Server
+    public List<String> listField = new ArrayList<>();
+    @Server
+    public String impureField = compute();
+
+    public long keptField = 1L << 40;
+
+    private static String compute() {
+        return "computed";
+    }
+}
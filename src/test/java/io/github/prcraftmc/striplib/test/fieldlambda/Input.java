@@ -0,0 +1,25 @@
+package io.github.prcraftmc.striplib.test.fieldlambda;
+
+import io.github.prcraftmc.striplib.test.Server;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class Input {
+    @Server
+    public static final Supplier<String> STATIC_FIELD = () -> "static";
+    @Server(stripLambdas = false)
+    public static final Runnable KEPT_LAMBDA_FIELD = () -> { };
+
+    @Server
+    public final Function<String, String> capturingField;
+    @Server
+    public final Supplier<Supplier<String>> nestedField = () -> () -> "nested";
+
+    public final Supplier<String> keptField = () -> "kept";
+
+    public Input() {
+        final String suffix = String.valueOf('!');
+        capturingField = s -> s + suffix;
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.prcraftmc.striplib.test.fold;
+
+import java.util.function.Supplier;
+
+public class Input {
+    public static String describe() {
+        if (Platform.isClient()) {
+            return "client";
+        }
+        return "server";
+    }
+
+    public static Supplier<String> supplier() {
+        if (!Platform.isClient()) {
+            return () -> "server";
+        }
+        return () -> "client";
+    }
+
+    public static Runnable reference() {
+        if (Platform.isClient()) {
+            return Input::helper;
+        }
+        return () -> { };
+    }
+
+    public static void direct() {
+        helper();
+    }
+
+    public static void helper() {
+    }
+
+    public static int side() {
+        switch (Platform.SIDE) {
+            case Platform.CLIENT:
+                return 10;
+            case Platform.SERVER:
+                return 20;
+            default:
+                return 30;
+        }
+    }
+
+    public static int guarded(String value) {
+        int result = 0;
+        for (int i = 0; i < 3; i++) {
+            if (Platform.isClient() && Platform.SIDE == Platform.CLIENT) {
+                try {
+                    result += Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    result--;
+                }
+            } else {
+                result += i;
+            }
+        }
+        return result;
+    }
+}
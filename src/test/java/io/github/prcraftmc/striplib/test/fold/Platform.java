@@ -0,0 +1,12 @@
+package io.github.prcraftmc.striplib.test.fold;
+
+public class Platform {
+    public static final int CLIENT = 0;
+    public static final int SERVER = 1;
+
+    public static int SIDE = Integer.getInteger("side", -1);
+
+    public static boolean isClient() {
+        throw new IllegalStateException("Not folded");
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.prcraftmc.striplib.test.implementation;
+
+public interface Handler<T> {
+    void handle(T event);
+
+    boolean accepts(T event);
+
+    String describe();
+}
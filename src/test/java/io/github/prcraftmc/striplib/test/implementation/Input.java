@@ -0,0 +1,31 @@
+package io.github.prcraftmc.striplib.test.implementation;
+
+import io.github.prcraftmc.striplib.test.Server;
+
+public class Input implements @Server Handler<String>, Tickable {
+    public int ticks;
+
+    @Override
+    public void handle(String event) {
+        final Runnable handler = () -> System.out.println(event);
+        handler.run();
+    }
+
+    @Override
+    public boolean accepts(String event) {
+        return !event.isEmpty();
+    }
+
+    @Override
+    public String describe() {
+        return "input";
+    }
+
+    @Override
+    public void tick() {
+        // accepts() implements the stripped interface, but is still called directly here
+        if (accepts("tick")) {
+            ticks++;
+        }
+    }
+}
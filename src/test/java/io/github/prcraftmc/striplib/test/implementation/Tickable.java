@@ -0,0 +1,7 @@
+package io.github.prcraftmc.striplib.test.implementation;
+
+public interface Tickable {
+    void tick();
+
+    String describe();
+}
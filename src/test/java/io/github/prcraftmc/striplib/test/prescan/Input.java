@@ -0,0 +1,11 @@
+package io.github.prcraftmc.striplib.test.prescan;
+
+import java.util.function.Supplier;
+
+public class Input {
+    public int field;
+
+    public void method() {
+        final Supplier<String> s = () -> "nothing to strip";
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.prcraftmc.striplib.test.value;
+
+import io.github.prcraftmc.striplib.test.Dist;
+import io.github.prcraftmc.striplib.test.OnlyIn;
+
+import java.io.Serializable;
+
+public class Input implements @OnlyIn(Dist.DEDICATED_SERVER) Serializable, @OnlyIn(Dist.CLIENT) Runnable {
+    @OnlyIn(Dist.CLIENT)
+    public int clientField;
+
+    @OnlyIn(value = Dist.DEDICATED_SERVER, reason = "console")
+    public int serverField;
+
+    @OnlyIn(Dist.CLIENT)
+    public void clientMethod() {
+        final Runnable r = () -> {
+        };
+    }
+
+    // Primitive arrays are reported as a single value, which can't be matched
+    @OnlyIn(value = Dist.DEDICATED_SERVER, reason = "console", priorities = {1, 2})
+    public void serverMethod() {
+    }
+
+    public void commonMethod() {
+    }
+
+    @Override
+    public void run() {
+    }
+}